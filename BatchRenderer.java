@@ -0,0 +1,239 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+
+// Renders a fractal straight to a PNG file without opening a window. The
+// image is rendered a band of rows at a time, the next band rendering while
+// the last one is encoded, so memory use depends on the width of the image
+// and not its height
+//
+// java BatchRenderer [options] output.png
+//   --size WIDTHxHEIGHT         image size, default 900x700
+//   --view MINX,MAXX,MINY,MAXY  area of the plane, default the whole set
+//   --fractal NAME              mandelbrot, burningship or julia
+//   --julia RE,IM               point of the Julia set, default -0.7,0.27015
+//   --iterations N              iterations before a point is taken to be in the set
+//   --palette NAME              Rainbow, Fire, Ocean or Greyscale
+//   --cycles N                  times the palette repeats
+//   --tracing                   render by boundary tracing, not the Burning Ship
+public class BatchRenderer {
+
+	// Pixels rendered per band, which bounds the memory used whatever the image size
+	final static int BAND_PIXELS = 1 << 22;
+
+	public static void main(String[] args) throws IOException {
+		// Nothing here needs a display
+		System.setProperty("java.awt.headless", "true");
+
+		Options options = new Options(true, true);
+		RenderRequest request;
+		String output = null;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				int last = options.parse(args, i);
+				if (last >= 0) {
+					i = last;
+				} else if (args[i].startsWith("--") || output != null) {
+					throw new IllegalArgumentException("Unexpected argument " + args[i]);
+				} else {
+					output = args[i];
+				}
+			}
+			if (output == null) {
+				throw new IllegalArgumentException("No output file given");
+			}
+			request = options.request();
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: java BatchRenderer " + Options.USAGE + " [--palette name] [--cycles N]"
+					+ " [--tracing] output.png");
+			System.exit(2);
+			return;
+		}
+
+		// Shared by every band, so the reference orbit of a deep zoom is
+		// computed once and the stats cover the whole image
+		EscapeKernel kernel = request.kernel();
+
+		long start = System.nanoTime();
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 1 << 16)) {
+			render(request, kernel, out);
+		}
+		System.err.printf("Wrote %s, %dx%d in %.1f s. %s%n", output, request.width, request.height,
+				(System.nanoTime() - start) / 1e9, kernel.stats);
+	}
+
+	// Renders the image band by band, writing each to out as a PNG. Only the
+	// band being encoded and the one after it are in memory
+	static void render(RenderRequest request, EscapeKernel kernel, OutputStream out) throws IOException {
+		int bandHeight = Math.max(1, Math.min(request.height, BAND_PIXELS / request.width));
+		int[] pixels = new int[request.width * bandHeight];
+
+		try (PngWriter png = new PngWriter(out, request.width, request.height)) {
+			CompletableFuture<IterationBuffer> next = band(request, kernel, 0, bandHeight);
+
+			for (int top = 0; top < request.height; top += bandHeight) {
+				IterationBuffer buffer = next.join();
+				if (top + bandHeight < request.height) {
+					next = band(request, kernel, top + bandHeight, bandHeight);
+				}
+				GenerateFractals.colourPixels(buffer, pixels, request);
+
+				for (int y = 0; y < buffer.height; y++) {
+					png.writeRow(pixels, y * request.width);
+				}
+				System.err.printf("\r%d%%", (int) (100L * (top + buffer.height) / request.height));
+			}
+			System.err.println();
+		}
+	}
+
+	// Starts rendering rows top to top + bandHeight of the image, the last
+	// band being shorter
+	private static CompletableFuture<IterationBuffer> band(RenderRequest request, EscapeKernel kernel, int top,
+			int bandHeight) {
+		return RenderService.SHARED.iterate(request.withRows(top, Math.min(bandHeight, request.height - top)), kernel);
+	}
+
+	// The options of what to render, shared by BatchRenderer,
+	// RenderCoordinator and PosterRenderer. Colouring and boundary tracing
+	// are only taken by the commands which say they use them
+	static class Options {
+
+		// Usage of the options every command takes
+		final static String USAGE = "[--size WxH] [--view minX,maxX,minY,maxY]"
+				+ " [--fractal mandelbrot|burningship|julia] [--julia re,im] [--iterations N]";
+
+		int width = GenerateMandlebrotBurningShip.MBBS_WIDTH;
+		int height = GenerateMandlebrotBurningShip.MBBS_HEIGHT;
+		double[] view = { GenerateFractals.DEFAULT_MINX, GenerateFractals.DEFAULT_MAXX,
+				GenerateFractals.DEFAULT_MINY, GenerateFractals.DEFAULT_MAXY };
+		String fractal = "mandelbrot";
+		double[] julia = { -0.7, 0.27015 };
+		int iterations = RenderRequest.DEFAULT.maxIterations;
+		Palette palette = RenderRequest.DEFAULT.palette;
+		int cycles = RenderRequest.DEFAULT.colourCycles;
+		boolean tracing;
+
+		// Whether --palette and --cycles, and --tracing, are taken
+		private final boolean colouring, boundaryTracing;
+
+		Options(boolean colouring, boolean boundaryTracing) {
+			this.colouring = colouring;
+			this.boundaryTracing = boundaryTracing;
+		}
+
+		// Reads args[i] and its value if it is one of these options. Returns
+		// the index of the last argument read, or -1 if it is not one
+		int parse(String[] args, int i) {
+			switch (args[i]) {
+			case "--size":
+				String[] size = value(args, i).split("x");
+				if (size.length != 2) {
+					throw new IllegalArgumentException("Expected WIDTHxHEIGHT, not " + args[i + 1]);
+				}
+				width = Integer.parseInt(size[0]);
+				height = Integer.parseInt(size[1]);
+				return i + 1;
+			case "--view":
+				view = numbers(value(args, i), 4);
+				return i + 1;
+			case "--fractal":
+				fractal = value(args, i).toLowerCase();
+				return i + 1;
+			case "--julia":
+				julia = numbers(value(args, i), 2);
+				return i + 1;
+			case "--iterations":
+				iterations = Integer.parseInt(value(args, i));
+				return i + 1;
+			case "--palette":
+				if (colouring) {
+					palette = palette(value(args, i));
+					return i + 1;
+				}
+				break;
+			case "--cycles":
+				if (colouring) {
+					cycles = Integer.parseInt(value(args, i));
+					return i + 1;
+				}
+				break;
+			case "--tracing":
+				if (boundaryTracing) {
+					tracing = true;
+					return i;
+				}
+				break;
+			}
+			return -1;
+		}
+
+		// The value following the option at args[i], for these options and
+		// those of each command
+		static String value(String[] args, int i) {
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("No value given for " + args[i]);
+			}
+			return args[i + 1];
+		}
+
+		// The request the options describe, coloured by them if they take
+		// colouring. Throws IllegalArgumentException if they make no sense
+		RenderRequest request() {
+			if (width <= 0 || height <= 0) {
+				throw new IllegalArgumentException("Image size must be positive");
+			}
+			if (iterations < 1) {
+				throw new IllegalArgumentException("Iterations must be at least 1");
+			}
+
+			RenderRequest request = RenderRequest.DEFAULT.withSize(width, height)
+					.withViewport(view[0], view[1], view[2], view[3]).withIterations(iterations)
+					.withBoundaryTracing(tracing);
+			if (colouring) {
+				request = request.withColouring(iterations, palette, cycles, true);
+			}
+
+			switch (fractal) {
+			case "mandelbrot":
+				// Switch to deep zoom before neighbouring pixels merge
+				if (DeepZoom.needed(view[0], view[1], width) || DeepZoom.needed(view[2], view[3], height)) {
+					request = request.withDeepZoom(DeepZoom.of(view[0], view[1], view[2], view[3]));
+				}
+				return request;
+			case "burningship":
+				return request.withFractal(RenderRequest.Fractal.BURNING_SHIP);
+			case "julia":
+				return request.withJulia(julia[0], julia[1]);
+			default:
+				throw new IllegalArgumentException("Unknown fractal " + fractal);
+			}
+		}
+	}
+
+	// Comma separated list of exactly count numbers
+	static double[] numbers(String text, int count) {
+		String[] parts = text.split(",");
+		if (parts.length != count) {
+			throw new IllegalArgumentException("Expected " + count + " numbers in " + text);
+		}
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = Double.parseDouble(parts[i].trim());
+		}
+		return values;
+	}
+
+	static Palette palette(String name) {
+		for (Palette p : Palette.PALETTES) {
+			if (p.name.equalsIgnoreCase(name)) {
+				return p;
+			}
+		}
+		throw new IllegalArgumentException("Unknown palette " + name);
+	}
+}
@@ -0,0 +1,368 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+// Measures the hot paths over a fixed set of viewports: the escape-time
+// kernels on a single core, scalar against SIMD, then single points as the
+// panels once iterated them, Complex arithmetic, colouring and whole frames.
+// Every measurement is warmed up first so that the JIT has compiled the
+// code, and reports the mean and standard deviation of the timed passes.
+// Whole frames and colouring run on the render pool, which is sized once
+// per JVM, so each thread count is measured in a JVM of its own.
+//
+// java --add-modules jdk.incubator.vector Benchmark [options]
+//   --iterations N,N...  iteration caps, default 100,1000
+//   --threads N,N...     render pool sizes, default 1 and the number of cores
+//   --only NAME,NAME...  kernel, point, complex, colour or frame, default all
+//   --gc                 also report the bytes allocated, by every thread
+public class Benchmark {
+
+	// Frame size of the Mandelbrot panel
+	final static int WIDTH = 900;
+	final static int HEIGHT = 700;
+
+	// Untimed passes so that the JIT has compiled the kernels
+	final static int WARMUP = 5;
+	// Timed passes, the fastest is reported for the kernels
+	final static int RUNS = 10;
+
+	// Fewer passes of whole frames, which take up to seconds each
+	final static int FRAME_WARMUP = 2;
+	final static int FRAME_RUNS = 5;
+
+	// The point benchmarks only take every SAMPLE-th pixel of every
+	// SAMPLE-th row, being single threaded
+	final static int SAMPLE = 4;
+
+	final static String[] BENCHMARKS = { "kernel", "point", "complex", "colour", "frame" };
+
+	// Representative views: mostly exterior, boundary detail needing many
+	// iterations, interior outside the cardioid and bulb tests (so the cycle
+	// check does the work), the Burning Ship's antenna and a Julia set
+	final static String[] VIEWPORT_NAMES = { "default", "seahorse", "interior", "antenna", "julia" };
+	final static RenderRequest[] VIEWPORTS = {
+			RenderRequest.DEFAULT,
+			RenderRequest.DEFAULT.withViewport(-0.7475, -0.7425, 0.0955, 0.09939),
+			RenderRequest.DEFAULT.withViewport(-0.13, -0.11, 0.737, 0.7526),
+			RenderRequest.DEFAULT.withViewport(-1.8, -1.7, -0.0889, -0.0111)
+					.withFractal(RenderRequest.Fractal.BURNING_SHIP),
+			RenderRequest.DEFAULT.withJulia(-0.7, 0.27015) };
+
+	// Results are added here so that the JIT cannot drop the work
+	static volatile long sink;
+
+	private static boolean gc;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int[] iterations = { 100, 1000 };
+		int[] threads = { 1, Runtime.getRuntime().availableProcessors() };
+		List<String> only = Arrays.asList(BENCHMARKS);
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--iterations":
+				iterations = numbers(args[++i]);
+				break;
+			case "--threads":
+				threads = numbers(args[++i]);
+				break;
+			case "--only":
+				only = Arrays.asList(args[++i].split(","));
+				break;
+			case "--gc":
+				gc = true;
+				break;
+			default:
+				// Java Benchmark [iterations], as before
+				iterations = numbers(args[i]);
+			}
+		}
+		threads = Arrays.stream(threads).distinct().toArray();
+
+		// Set in the JVMs started by fork, which only run the pool benchmarks
+		boolean forked = Boolean.getBoolean("benchmark.forked");
+		if (!forked) {
+			System.out.printf("%-8s %-9s %6s %7s %22s%s%n", "", "viewport", "iter", "threads", "score",
+					gc ? "      allocated" : "");
+		}
+
+		for (int maxIterations : iterations) {
+			if (only.contains("kernel") && !forked) {
+				kernels(maxIterations);
+			}
+			for (int v = 0; v < VIEWPORTS.length; v++) {
+				RenderRequest request = VIEWPORTS[v].withIterations(maxIterations);
+
+				if (only.contains("point") && !forked) {
+					point(VIEWPORT_NAMES[v], request);
+				}
+				if (only.contains("complex") && !forked) {
+					complex(VIEWPORT_NAMES[v], request);
+				}
+				if (forked && only.contains("colour")) {
+					colour(VIEWPORT_NAMES[v], request);
+				}
+				if (forked && only.contains("frame")) {
+					frame(VIEWPORT_NAMES[v], request);
+				}
+			}
+		}
+
+		// The pool benchmarks, once per thread count
+		if (!forked && (only.contains("colour") || only.contains("frame"))) {
+			for (int n : threads) {
+				fork(n, args);
+			}
+		}
+	}
+
+	// Runs this benchmark in a new JVM with a render pool of n threads
+	private static void fork(int n, String[] args) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + "/bin/java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-Dfractal.threads=" + n);
+		command.add("-Dbenchmark.forked=true");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Benchmark.class.getName());
+		command.addAll(Arrays.asList(args));
+
+		int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+		if (status != 0) {
+			throw new IllegalStateException("Benchmark with " + n + " threads failed with status " + status);
+		}
+	}
+
+	// The scalar kernels and, if available, their vector counterparts
+	static void kernels(int maxIterations) {
+		System.out.println("Kernels on one core, " + WIDTH + "x" + HEIGHT + ", " + maxIterations + " iterations");
+
+		if (!EscapeKernel.VECTOR_API) {
+			System.out.println("Vector kernels not available, only timing the scalar kernels");
+		}
+
+		compare("Mandelbrot", new EscapeKernel.Mandelbrot(), maxIterations);
+		compare("Burning Ship", new EscapeKernel.BurningShip(), maxIterations);
+		compare("Julia", new EscapeKernel.Julia(-0.7, 0.27015), maxIterations);
+	}
+
+	// Times the scalar kernel and, if available, its vector counterpart
+	static void compare(String name, EscapeKernel scalar, int maxIterations) {
+		double scalarTime = time(scalar, maxIterations);
+		String line = String.format("%-13s scalar %8.1f Mpixel/s", name, WIDTH * HEIGHT / scalarTime / 1e6);
+
+		if (EscapeKernel.VECTOR_API) {
+			EscapeKernel vector;
+			if (scalar instanceof EscapeKernel.Julia) {
+				EscapeKernel.Julia julia = (EscapeKernel.Julia) scalar;
+				vector = EscapeKernel.vectorJulia(julia.kr, julia.ki);
+			} else if (scalar instanceof EscapeKernel.BurningShip) {
+				vector = EscapeKernel.vectorBurningShip();
+			} else {
+				vector = EscapeKernel.vectorMandelbrot();
+			}
+			double vectorTime = time(vector, maxIterations);
+
+			line += String.format("   vector %8.1f Mpixel/s (%d lanes)   speedup %.2fx",
+					WIDTH * HEIGHT / vectorTime / 1e6, EscapeKernel.vectorLanes(), scalarTime / vectorTime);
+		}
+		System.out.println(line);
+	}
+
+	// Fastest time in seconds to iterate every row of the frame on this thread
+	static double time(EscapeKernel kernel, int maxIterations) {
+		double[] cr = new double[WIDTH];
+		double[] ci = new double[WIDTH];
+		double[] zr = new double[WIDTH];
+		double[] zi = new double[WIDTH];
+		int[] iterations = new int[WIDTH];
+
+		for (int x = 0; x < WIDTH; x++) {
+			cr[x] = GenerateFractals.DEFAULT_MINX
+					+ x * (GenerateFractals.DEFAULT_MAXX - GenerateFractals.DEFAULT_MINX) / WIDTH;
+		}
+
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < WARMUP + RUNS; run++) {
+			long start = System.nanoTime();
+
+			for (int y = 0; y < HEIGHT; y++) {
+				double b = GenerateFractals.DEFAULT_MINY
+						+ y * (GenerateFractals.DEFAULT_MAXY - GenerateFractals.DEFAULT_MINY) / HEIGHT;
+				Arrays.fill(ci, b);
+				kernel.iterateRow(cr, ci, WIDTH, maxIterations, iterations, zr, zi);
+			}
+			long elapsed = System.nanoTime() - start;
+
+			if (run >= WARMUP) {
+				best = Math.min(best, elapsed);
+			}
+		}
+		return best / 1e9;
+	}
+
+	// One pixel at a time on this thread, iterated and shaded, as the
+	// panels' checkPoint did
+	static void point(String viewport, RenderRequest request) {
+		measure("point", viewport, request.maxIterations, 1, WARMUP, RUNS, sampledPixels(), "pixel", 1, "ns",
+				pointPass(request));
+	}
+
+	// The same points through the loops the panels first had, with a new
+	// Complex for every step of every Mandelbrot and Julia orbit
+	static void complex(String viewport, RenderRequest request) {
+		measure("complex", viewport, request.maxIterations, 1, WARMUP, RUNS, sampledPixels(), "pixel", 1, "ns",
+				complexPass(request));
+	}
+
+	// Shades a whole frame on the render pool
+	static void colour(String viewport, RenderRequest request) {
+		measure("colour", viewport, request.maxIterations, TileRenderer.POOL.getParallelism(), WARMUP, RUNS,
+				(long) request.width * request.height, "pixel", 1, "ns", colourPass(request));
+	}
+
+	// Iterates a whole frame on the render pool
+	static void frame(String viewport, RenderRequest request) {
+		measure("frame", viewport, request.maxIterations, TileRenderer.POOL.getParallelism(), FRAME_WARMUP,
+				FRAME_RUNS, 1, "frame", 1e6, "ms", framePass(request));
+	}
+
+	// One pass of the named benchmark over the named viewport, for the JMH
+	// benchmarks in benchmarks/, which cannot see classes in this package
+	// other than through a public method. The pass returns a result so that
+	// the work cannot be dropped
+	public static LongSupplier pass(String benchmark, String viewport, int maxIterations) {
+		int v = Arrays.asList(VIEWPORT_NAMES).indexOf(viewport);
+		if (v < 0) {
+			throw new IllegalArgumentException("Unknown viewport " + viewport);
+		}
+		RenderRequest request = VIEWPORTS[v].withIterations(maxIterations);
+
+		switch (benchmark) {
+		case "point":
+			return pointPass(request);
+		case "complex":
+			return complexPass(request);
+		case "colour":
+			return colourPass(request);
+		case "frame":
+			return framePass(request);
+		default:
+			throw new IllegalArgumentException("Unknown benchmark " + benchmark);
+		}
+	}
+
+	// Pixels iterated by a pass of the point benchmarks
+	static long sampledPixels() {
+		return (long) ((WIDTH + SAMPLE - 1) / SAMPLE) * ((HEIGHT + SAMPLE - 1) / SAMPLE);
+	}
+
+	static LongSupplier pointPass(RenderRequest request) {
+		EscapeKernel kernel = request.kernel();
+		double scale = 0.9 * request.colourCycles / request.colourIterations;
+		double[] z = new double[2];
+
+		return () -> {
+			long sum = 0;
+			for (int y = 0; y < HEIGHT; y += SAMPLE) {
+				for (int x = 0; x < WIDTH; x += SAMPLE) {
+					int n = request.iteratePixel(kernel, x, y, z);
+					sum += GenerateFractals.shade(n, IterationBuffer.smooth(n, z[0], z[1]), request.colourIterations,
+							request.palette, scale, request.smoothColouring);
+				}
+			}
+			return sum;
+		};
+	}
+
+	// Each fractal's loop as the panels first had it, see KernelCheck.complex
+	static LongSupplier complexPass(RenderRequest request) {
+		EscapeKernel kernel = request.kernel();
+		double[] c = new double[2];
+		double[] z = new double[2];
+
+		return () -> {
+			long sum = 0;
+			for (int y = 0; y < HEIGHT; y += SAMPLE) {
+				for (int x = 0; x < WIDTH; x += SAMPLE) {
+					request.pointAt(kernel, x, y, c);
+					sum += KernelCheck.complex(request, new Complex(c[0], c[1]), z);
+				}
+			}
+			return sum;
+		};
+	}
+
+	// Renders the frame once, then each pass shades all of it
+	static LongSupplier colourPass(RenderRequest request) {
+		IterationBuffer buffer = RenderService.SHARED.iterate(request).join();
+		int[] pixels = new int[buffer.width * buffer.height];
+
+		return () -> {
+			GenerateFractals.colourPixels(buffer, pixels, request);
+			return pixels[pixels.length / 2];
+		};
+	}
+
+	static LongSupplier framePass(RenderRequest request) {
+		return () -> {
+			IterationBuffer buffer = RenderService.SHARED.iterate(request).join();
+			return buffer.iterations[buffer.iterations.length / 2];
+		};
+	}
+
+	// Runs op warmup times, then times runs more passes and prints the mean
+	// time per item and its standard deviation, each pass being count items
+	// of the given kind. The time is printed in units of scale nanoseconds
+	private static void measure(String benchmark, String viewport, int maxIterations, int threads, int warmup,
+			int runs, long count, String item, double scale, String unit, LongSupplier op) {
+		for (int run = 0; run < warmup; run++) {
+			sink += op.getAsLong();
+		}
+
+		double[] times = new double[runs];
+		long allocated = 0;
+		for (int run = 0; run < runs; run++) {
+			long before = gc ? allocatedBytes() : 0;
+			long start = System.nanoTime();
+
+			sink += op.getAsLong();
+
+			times[run] = (System.nanoTime() - start) / scale / count;
+			if (gc) {
+				allocated += allocatedBytes() - before;
+			}
+		}
+
+		double mean = Arrays.stream(times).average().getAsDouble();
+		double variance = Arrays.stream(times).map(t -> (t - mean) * (t - mean)).sum() / Math.max(1, runs - 1);
+
+		String line = String.format("%-8s %-9s %6d %7d %10.3f +- %7.3f %s/%s", benchmark, viewport, maxIterations,
+				threads, mean, Math.sqrt(variance), unit, item);
+		if (gc) {
+			line += String.format(" %10.1f B/%s", (double) allocated / runs / count, item);
+		}
+		System.out.println(line);
+	}
+
+	// Bytes allocated so far by every live thread
+	private static long allocatedBytes() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long total = 0;
+
+		for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			total += Math.max(0, bytes);
+		}
+		return total;
+	}
+
+	// Comma separated whole numbers
+	static int[] numbers(String text) {
+		return Arrays.stream(text.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+	}
+}
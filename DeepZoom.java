@@ -0,0 +1,175 @@
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+// Viewport held to arbitrary precision once the displayed area becomes too
+// small for double coordinates. Only the centre needs the extra precision,
+// the size of the area and the offset of each pixel from the centre fit in a double
+class DeepZoom {
+
+	// Deep zoom takes over once a pixel is narrower than this many ulps of its coordinate
+	final static double MIN_ULPS_PER_PIXEL = 1024;
+
+	// Centre of the displayed area
+	final BigDecimal centreX, centreY;
+	// Width and height of the displayed area
+	final double spanX, spanY;
+
+	DeepZoom(BigDecimal centreX, BigDecimal centreY, double spanX, double spanY) {
+		this.centreX = centreX;
+		this.centreY = centreY;
+		this.spanX = spanX;
+		this.spanY = spanY;
+	}
+
+	// Whether double coordinates are too coarse to tell neighbouring pixels apart
+	static boolean needed(double min, double max, int pixels) {
+		double ulp = Math.ulp(Math.max(Math.abs(min), Math.abs(max)));
+		return (max - min) / pixels < MIN_ULPS_PER_PIXEL * ulp;
+	}
+
+	// Switches an area given by double bounds over to deep zoom
+	static DeepZoom of(double minX, double maxX, double minY, double maxY) {
+		BigDecimal two = BigDecimal.valueOf(2);
+		BigDecimal centreX = new BigDecimal(minX).add(new BigDecimal(maxX)).divide(two);
+		BigDecimal centreY = new BigDecimal(minY).add(new BigDecimal(maxY)).divide(two);
+
+		return new DeepZoom(centreX, centreY, maxX - minX, maxY - minY);
+	}
+
+	// The area covered by the pixel rectangle (x0, y0) to (x1, y1) of a width x height image
+	DeepZoom zoom(int x0, int y0, int x1, int y1, int width, int height) {
+		double pixelX = spanX / width;
+		double pixelY = spanY / height;
+
+		// Offset of the rectangle's centre from the current centre
+		double offsetX = ((x0 + x1) / 2.0 - width / 2.0) * pixelX;
+		double offsetY = ((y0 + y1) / 2.0 - height / 2.0) * pixelY;
+
+		return new DeepZoom(centreX.add(new BigDecimal(offsetX)), centreY.add(new BigDecimal(offsetY)),
+				(x1 - x0) * pixelX, (y1 - y0) * pixelY);
+	}
+
+	// Nearest double bounds, used for display and for hovering
+	double minX() {
+		return centreX.doubleValue() - spanX / 2;
+	}
+
+	double maxX() {
+		return centreX.doubleValue() + spanX / 2;
+	}
+
+	double minY() {
+		return centreY.doubleValue() - spanY / 2;
+	}
+
+	double maxY() {
+		return centreY.doubleValue() + spanY / 2;
+	}
+
+	// Computes the reference orbit at the centre for a width x height frame
+	PerturbationKernel kernel(int width, int height, int maxIterations) {
+		double pixel = Math.min(spanX / width, spanY / height);
+
+		// Enough digits to resolve a pixel, plus a margin for rounding along the orbit
+		int digits = 20 + (int) Math.ceil(-Math.log10(pixel));
+
+		return new PerturbationKernel(centreX, centreY, spanX, spanY, new MathContext(digits), maxIterations);
+	}
+}
+
+// Mandelbrot kernel for deep zooms using perturbation theory. A single
+// reference orbit Z is computed to high precision at the centre, then each
+// pixel only iterates its difference d from it in double precision:
+// d = 2Zd + d^2 + dc. The point passed to iterate is dc, the offset of the
+// pixel from the centre
+class PerturbationKernel extends EscapeKernel {
+
+	// Width and height of the area being rendered, for turning pixels into offsets
+	final double spanX, spanY;
+
+	// Reference orbit, Z0 = 0 and Zn+1 = Zn^2 + C, up to escape or the iteration cap
+	private final double[] orbitReal, orbitImaginary;
+	// Index of the last point of the reference orbit
+	private final int last;
+
+	PerturbationKernel(BigDecimal cr, BigDecimal ci, double spanX, double spanY, MathContext mc, int maxIterations) {
+		this.spanX = spanX;
+		this.spanY = spanY;
+		orbitReal = new double[maxIterations + 2];
+		orbitImaginary = new double[maxIterations + 2];
+
+		BigDecimal zr = BigDecimal.ZERO;
+		BigDecimal zi = BigDecimal.ZERO;
+		int n = 0;
+
+		while (n < maxIterations + 1) {
+			BigDecimal zrUpdated = zr.multiply(zr, mc).subtract(zi.multiply(zi, mc), mc).add(cr, mc);
+			zi = zr.multiply(zi, mc).multiply(BigDecimal.valueOf(2), mc).add(ci, mc);
+			zr = zrUpdated;
+			n++;
+
+			orbitReal[n] = zr.doubleValue();
+			orbitImaginary[n] = zi.doubleValue();
+
+			// An escaped reference is still usable, pixels rebase when they reach its end
+			if (orbitReal[n] * orbitReal[n] + orbitImaginary[n] * orbitImaginary[n] > 4) {
+				break;
+			}
+		}
+		last = n;
+	}
+
+	// Matches EscapeKernel.Mandelbrot: starts from z = c and counts the
+	// iterations until |z| > 2
+	int iterate(double dcr, double dci, int maxIterations, double[] z) {
+		// z1 = c, so the first difference from the reference is dc
+		return iterate(dcr, dci, dcr, dci, 1, 0, maxIterations, z);
+	}
+
+	// Not resumable: the full z a pixel stopped at is a double, and carrying
+	// on from it would lose the pixel's offset from the reference orbit,
+	// which is the precision perturbation exists to keep. A higher cap
+	// renders the frame again
+	boolean canResume() {
+		return false;
+	}
+
+	// Iterates the difference d = dr + di i from point m of the reference orbit
+	private int iterate(double dcr, double dci, double dr, double di, int m, int iterations, int maxIterations,
+			double[] z) {
+		double zr, zi;
+
+		while (true) {
+			zr = orbitReal[m] + dr;
+			zi = orbitImaginary[m] + di;
+			double modulusSquared = zr * zr + zi * zi;
+
+			if (iterations >= maxIterations || modulusSquared > 4) {
+				break;
+			}
+
+			// Glitch detection: once z is closer to 0 than to the reference,
+			// the difference has lost its precision (or the reference has run
+			// out). Rebase onto the start of the reference orbit, where Z0 = 0
+			if (modulusSquared < dr * dr + di * di || m == last) {
+				dr = zr;
+				di = zi;
+				m = 0;
+			}
+
+			double wr = orbitReal[m];
+			double wi = orbitImaginary[m];
+
+			// d = 2Zd + d^2 + dc
+			double drUpdated = 2 * (wr * dr - wi * di) + dr * dr - di * di + dcr;
+			di = 2 * (wr * di + wi * dr) + 2 * dr * di + dci;
+			dr = drUpdated;
+
+			m++;
+			iterations++;
+		}
+		z[0] = zr;
+		z[1] = zi;
+		return iterations;
+	}
+}
@@ -0,0 +1,155 @@
+import java.util.stream.IntStream;
+
+// Histogram equalised colouring of one frame. Linear colouring spreads the
+// palette evenly up to the iteration cap, so at high caps nearly every
+// pixel lands in the first sliver of it. Here each pixel's place in the
+// palette is the fraction of the frame's escaped pixels which escaped
+// sooner, so every colour covers about as much of the image whatever the cap
+//
+// The histogram is counted in parallel without contention: the rows are
+// split into one stripe per pool thread, each counting into its own
+// primitive array, and the stripes are added up at the end. Counts past
+// MAX_BINS distinct values share bins, so the work stays bounded at
+// millions of iterations
+final class EqualisedColouring {
+
+	// Most bins in the histogram
+	final static int MAX_BINS = 1 << 16;
+
+	// Iteration count from which pixels are inside and black. Julia frames
+	// stop one short of the cap they were rendered with, which may be lower
+	// than the cap they are coloured with
+	private final int interior;
+	private final Palette palette;
+	private final boolean smoothing;
+
+	// Lowest value counted, iterations per bin as a power of two and number of bins
+	private final int low, shift, bins;
+	// Position in the palette at the start of each bin, and at the end of
+	// the last, from the cumulative distribution of the histogram
+	private final double[] positions;
+	// Colour of each bin, for colouring without smoothing
+	private final int[] colours;
+
+	private EqualisedColouring(int interior, Palette palette, boolean smoothing, int low, int shift, int bins) {
+		this.interior = interior;
+		this.palette = palette;
+		this.smoothing = smoothing;
+		this.low = low;
+		this.shift = shift;
+		this.bins = bins;
+
+		positions = new double[bins + 1];
+		colours = new int[bins];
+	}
+
+	// Counts the escaped pixels of the buffer and makes the colouring the
+	// request's palette settings give them
+	static EqualisedColouring of(IterationBuffer buffer, RenderRequest request) {
+		int interior = request.interiorIterations();
+		boolean smoothing = request.smoothColouring;
+		int stripes = Math.max(1, Math.min(buffer.height, TileRenderer.POOL.getParallelism()));
+
+		// Range of the values counted, per stripe then overall
+		int[] lows = new int[stripes];
+		int[] highs = new int[stripes];
+		TileRenderer.POOL.submit(() -> IntStream.range(0, stripes).parallel().forEach(stripe -> {
+			int lowest = Integer.MAX_VALUE, highest = Integer.MIN_VALUE;
+			int first = start(buffer, stripe, stripes), end = start(buffer, stripe + 1, stripes);
+
+			for (int i = first; i < end; i++) {
+				if (buffer.iterations[i] < interior) {
+					int value = value(buffer.iterations[i], buffer.smooth[i], smoothing);
+					lowest = Math.min(lowest, value);
+					highest = Math.max(highest, value);
+				}
+			}
+			lows[stripe] = lowest;
+			highs[stripe] = highest;
+		})).join();
+
+		int lowest = Integer.MAX_VALUE, highest = Integer.MIN_VALUE;
+		for (int stripe = 0; stripe < stripes; stripe++) {
+			lowest = Math.min(lowest, lows[stripe]);
+			highest = Math.max(highest, highs[stripe]);
+		}
+		if (lowest > highest) {
+			// Nothing escaped
+			lowest = highest = 0;
+		}
+		long range = (long) highest - lowest + 1;
+		int shift = 64 - Long.numberOfLeadingZeros((range - 1) / MAX_BINS);
+		int bins = (int) ((range - 1 >> shift) + 1);
+		EqualisedColouring colouring = new EqualisedColouring(interior, request.palette, smoothing, lowest, shift,
+				bins);
+
+		// Each stripe counts into an array of its own
+		int[][] counts = new int[stripes][];
+		TileRenderer.POOL.submit(() -> IntStream.range(0, stripes).parallel().forEach(stripe -> {
+			int[] count = new int[colouring.bins];
+			int first = start(buffer, stripe, stripes), end = start(buffer, stripe + 1, stripes);
+
+			// Every value counted is in range, so no clamping
+			for (int i = first; i < end; i++) {
+				if (buffer.iterations[i] < interior) {
+					count[value(buffer.iterations[i], buffer.smooth[i], smoothing) - colouring.low >>> colouring.shift]++;
+				}
+			}
+			counts[stripe] = count;
+		})).join();
+
+		long[] total = new long[bins];
+		long escaped = 0;
+		for (int[] count : counts) {
+			for (int b = 0; b < bins; b++) {
+				total[b] += count[b];
+			}
+		}
+		for (long n : total) {
+			escaped += n;
+		}
+
+		// The palette is spread over 0.9 of each cycle as in linear colouring,
+		// so the last pixels to escape don't wrap round to the first colour
+		double scale = 0.9 * request.colourCycles / Math.max(1, escaped);
+		long below = 0;
+		for (int b = 0; b < bins; b++) {
+			colouring.positions[b] = scale * below;
+			colouring.colours[b] = colouring.palette.colour(scale * below);
+			below += total[b];
+		}
+		colouring.positions[bins] = scale * below;
+
+		return colouring;
+	}
+
+	// First pixel of a stripe of rows
+	private static int start(IterationBuffer buffer, int stripe, int stripes) {
+		return (int) ((long) buffer.height * stripe / stripes) * buffer.width;
+	}
+
+	// What is counted for a pixel: its iteration count, or the whole part of
+	// its smooth count so that the palette follows the smooth gradient
+	private static int value(int iterations, float smooth, boolean smoothing) {
+		return smoothing ? (int) smooth : iterations;
+	}
+
+	private int bin(int value) {
+		return (int) Math.min(bins - 1, Math.max(0, (long) value - low >> shift));
+	}
+
+	// Colour of a pixel with the given iteration count and smooth count.
+	// Values outside those counted, such as extra samples, take the nearest bin
+	int shade(int iterations, float smooth) {
+		if (iterations >= interior) {
+			return GenerateFractals.BLACK;
+		}
+		if (!smoothing) {
+			return colours[bin(iterations)];
+		}
+		// Part way through the bin, by the fraction of the smooth count
+		double u = Math.min(bins, Math.max(0, (smooth - low) / (1 << shift)));
+		int b = Math.min(bins - 1, (int) u);
+		return palette.colour(positions[b] + (u - b) * (positions[b + 1] - positions[b]));
+	}
+}
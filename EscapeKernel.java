@@ -0,0 +1,262 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// Escape-time iteration on the raw real and imaginary parts, so that no
+// Complex objects are created per pixel or per iteration. A kernel is
+// chosen once per frame and shared by every tile
+abstract class EscapeKernel {
+
+	// Counters for the frame this kernel is rendering
+	final FrameStats stats = new FrameStats();
+
+	// Iterates the point c = cr + ci i until it escapes or maxIterations is
+	// reached. Returns the number of iterations and leaves the final z in z[0] + z[1]i
+	abstract int iterate(double cr, double ci, int maxIterations, double[] z);
+
+	// Whether resume can carry on with a point which reached the iteration
+	// cap. Such points are reported with exactly maxIterations
+	boolean canResume() {
+		return false;
+	}
+
+	// Carries on iterating the point c = cr + ci i from the z in z[0] + z[1]i
+	// it was left at after the given number of iterations, until it escapes
+	// or maxIterations is reached. Same results as iterate with maxIterations
+	int resume(double cr, double ci, int iterations, int maxIterations, double[] z) {
+		throw new UnsupportedOperationException(getClass().getName() + " cannot resume");
+	}
+
+	// Iterates the n points cr[i] + ci[i] i, writing each point's iteration
+	// count and final z. Vector kernels override this to do several points at once
+	void iterateRow(double[] cr, double[] ci, int n, int maxIterations, int[] iterations, double[] zr, double[] zi) {
+		double[] z = new double[2];
+
+		for (int i = 0; i < n; i++) {
+			iterations[i] = iterate(cr[i], ci[i], maxIterations, z);
+			zr[i] = z[0];
+			zi[i] = z[1];
+		}
+	}
+
+	// Factories of the SIMD kernels in vector/VectorKernels, looked up by
+	// name since they are compiled separately, or null if that class was
+	// not built or the JVM cannot run it
+	private final static MethodHandle VECTOR_MANDELBROT, VECTOR_BURNING_SHIP, VECTOR_JULIA, VECTOR_LANES;
+
+	static {
+		MethodHandle mandelbrot = null, burningShip = null, julia = null, lanes = null;
+
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				MethodHandles.Lookup lookup = MethodHandles.lookup();
+				Class<?> vector = Class.forName("VectorKernels");
+				MethodType factory = MethodType.methodType(EscapeKernel.class);
+
+				mandelbrot = lookup.findStatic(vector, "mandelbrot", factory);
+				burningShip = lookup.findStatic(vector, "burningShip", factory);
+				julia = lookup.findStatic(vector, "julia", factory.appendParameterTypes(double.class, double.class));
+				lanes = lookup.findStatic(vector, "lanes", MethodType.methodType(int.class));
+			} catch (ReflectiveOperationException | LinkageError e) {
+				mandelbrot = burningShip = julia = lanes = null;
+			}
+		}
+		VECTOR_MANDELBROT = mandelbrot;
+		VECTOR_BURNING_SHIP = burningShip;
+		VECTOR_JULIA = julia;
+		VECTOR_LANES = lanes;
+	}
+
+	// Whether the JVM was started with --add-modules jdk.incubator.vector,
+	// VectorKernels was compiled, and the SIMD kernels have not been switched
+	// off with -Dfractal.scalar=true
+	final static boolean VECTOR_API = VECTOR_LANES != null && !Boolean.getBoolean("fractal.scalar");
+
+	// New kernels for a frame, vectorised when the Vector API is available.
+	// The Mandelbrot set stays scalar: its per-lane cycle check costs more
+	// than the lanes gain (see Benchmark)
+	static EscapeKernel mandelbrot() {
+		return new Mandelbrot();
+	}
+
+	static EscapeKernel burningShip() {
+		return VECTOR_API ? vectorBurningShip() : new BurningShip();
+	}
+
+	static EscapeKernel julia(double kr, double ki) {
+		return VECTOR_API ? vectorJulia(kr, ki) : new Julia(kr, ki);
+	}
+
+	// The SIMD kernels themselves, for Benchmark and KernelCheck to set
+	// against the scalar ones. Only to be called when VECTOR_API is true
+	static EscapeKernel vectorMandelbrot() {
+		return vector(VECTOR_MANDELBROT);
+	}
+
+	static EscapeKernel vectorBurningShip() {
+		return vector(VECTOR_BURNING_SHIP);
+	}
+
+	static EscapeKernel vectorJulia(double kr, double ki) {
+		return vector(VECTOR_JULIA, kr, ki);
+	}
+
+	// Doubles per vector in the SIMD kernels
+	static int vectorLanes() {
+		try {
+			return (int) VECTOR_LANES.invokeExact();
+		} catch (Throwable e) {
+			throw new IllegalStateException("Vector kernels unavailable", e);
+		}
+	}
+
+	private static EscapeKernel vector(MethodHandle factory, Object... args) {
+		try {
+			return (EscapeKernel) factory.invokeWithArguments(args);
+		} catch (Throwable e) {
+			throw new IllegalStateException("Vector kernels unavailable", e);
+		}
+	}
+
+	// Interior shortcuts keep clear of the boundary by this much, so that
+	// rounding can never put an escaping point inside
+	final static double BOUNDARY_MARGIN = 1e-9;
+
+	// Iterations between the first checkpoints of the orbit cycle check
+	final static int FIRST_CYCLE_CHECK = 8;
+
+	// Mandelbrot set, z = z^2 + c starting from z = c
+	static class Mandelbrot extends EscapeKernel {
+
+		int iterate(double cr, double ci, int maxIterations, double[] z) {
+			z[0] = cr;
+			z[1] = ci;
+
+			return resume(cr, ci, 0, maxIterations, z);
+		}
+
+		boolean canResume() {
+			return true;
+		}
+
+		int resume(double cr, double ci, int iterations, int maxIterations, double[] z) {
+			double zr = z[0];
+			double zi = z[1];
+
+			// Inside the main cardioid or the period-2 bulb, it never escapes
+			if (inCardioidOrBulb(cr, ci)) {
+				stats.bulbPoints.increment();
+				stats.skippedIterations.add(maxIterations - iterations);
+				return maxIterations;
+			}
+
+			// Earlier point of the orbit, moved forward each time the distance
+			// to the next checkpoint doubles (Brent's cycle detection)
+			double checkR = zr;
+			double checkI = zi;
+			int nextCheck = iterations + FIRST_CYCLE_CHECK;
+
+			// Check if it goes to infinity
+			while (iterations < maxIterations && zr * zr + zi * zi <= 4) {
+				// (zn) = (zn-1)^2 + c
+				double zrUpdated = zr * zr - zi * zi + cr;
+				zi = zr * zi * 2 + ci;
+				zr = zrUpdated;
+				iterations++;
+
+				// Exactly the same z as before, so the orbit is trapped in a
+				// cycle and the remaining iterations can only repeat it
+				if (zr == checkR && zi == checkI) {
+					stats.cyclePoints.increment();
+					stats.skippedIterations.add(maxIterations - iterations);
+					iterations = maxIterations;
+					break;
+				}
+				if (iterations == nextCheck) {
+					checkR = zr;
+					checkI = zi;
+					nextCheck *= 2;
+				}
+			}
+			z[0] = zr;
+			z[1] = zi;
+			return iterations;
+		}
+
+		// Closed form tests for the two largest components of the interior
+		static boolean inCardioidOrBulb(double cr, double ci) {
+			double x = cr - 0.25;
+			double y2 = ci * ci;
+			double q = x * x + y2;
+
+			if (q * (q + x) < y2 / 4 - BOUNDARY_MARGIN) {
+				return true;
+			}
+			return (cr + 1) * (cr + 1) + y2 < 1.0 / 16 - BOUNDARY_MARGIN;
+		}
+	}
+
+	// Burning Ship fractal, z = (|Re z| + |Im z|i)^2 + c starting from z = 0
+	static class BurningShip extends EscapeKernel {
+
+		int iterate(double cr, double ci, int maxIterations, double[] z) {
+			z[0] = 0;
+			z[1] = 0;
+
+			return resume(cr, ci, 0, maxIterations, z);
+		}
+
+		boolean canResume() {
+			return true;
+		}
+
+		int resume(double cr, double ci, int iterations, int maxIterations, double[] z) {
+			double zr = z[0];
+			double zi = z[1];
+
+			while (iterations < maxIterations && zr * zr + zi * zi < 4) {
+				double zrUpdated = zr * zr - zi * zi + cr;
+				zi = 2 * Math.abs(zr) * Math.abs(zi) + ci;
+				zr = zrUpdated;
+				iterations++;
+			}
+			z[0] = zr;
+			z[1] = zi;
+			return iterations;
+		}
+	}
+
+	// Julia set for the constant k, z = z^2 + k starting from z = c. A point
+	// which never escapes is given maxIterations - 1 iterations
+	static class Julia extends EscapeKernel {
+
+		final double kr, ki;
+
+		Julia(double kr, double ki) {
+			this.kr = kr;
+			this.ki = ki;
+		}
+
+		int iterate(double cr, double ci, int maxIterations, double[] z) {
+			double zr = cr;
+			double zi = ci;
+			int iterations;
+
+			for (iterations = 0; iterations < maxIterations; iterations++) {
+				double zrUpdated = zr * zr - zi * zi + kr;
+				zi = zr * zi * 2 + ki;
+				zr = zrUpdated;
+
+				if (zr * zr + zi * zi > 4) {
+					break;
+				}
+			}
+			if (iterations == maxIterations) {
+				iterations = maxIterations - 1;
+			}
+			z[0] = zr;
+			z[1] = zi;
+			return iterations;
+		}
+	}
+}
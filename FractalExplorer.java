@@ -12,20 +12,35 @@ import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.Rectangle2D.Float;
+import java.io.IOException;
+import java.nio.file.Path;
 
+import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JComponent;
 import javax.swing.JList;
+import javax.swing.JMenu;
+import javax.swing.JMenuBar;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JPanel;
 import javax.swing.JRadioButton;
 import javax.swing.JTextField;
+import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
 import javax.swing.border.TitledBorder;
 
 //This creates the Mandelbrot set
@@ -63,6 +78,8 @@ class FEFrame extends JFrame {
 
 	// Text fields for the selection of min and max points for the fractal
 	protected static JTextField minXText, maxXText, minYText, maxYText;
+	// Iterations before a point is taken to be in the set
+	protected static JTextField iterationsText;
 
 	// Rectangle to be displayed
 	protected Shape r;
@@ -72,12 +89,21 @@ class FEFrame extends JFrame {
 	//Where the mouse was initially clicked
 	protected Point startPoint;
 	protected static Point start, end;
+	//Last mouse position while panning with the right button, null otherwise
+	protected Point panFrom;
+	//Pixels moved by an arrow key
+	static final int PAN_STEP = 64;
 	
 	//This allows for the selection of the burning ship fractal
 	protected static JRadioButton burningShip;
 	//Mandelbrot fractal
 	protected static JRadioButton mandelbrot;
 	
+	//Iterations skipped in the last frame of the main panel
+	protected static JLabel frameStats;
+	//Time from moving the mouse to the Julia set following it
+	protected static JLabel juliaLatency;
+	
 	protected FEFrame(String title) {
 		super(title);
 		mbPanel = new GenerateMandlebrotBurningShip();
@@ -100,6 +126,10 @@ class FEFrame extends JFrame {
 
 		pane.add(mbPanel);
 		pane.add(rightPanel(), BorderLayout.EAST);
+		this.setJMenuBar(renderMenu());
+
+		// First frame, once the fractal type controls exist
+		mbPanel.requestRender();
 
 		this.setResizable(false);
 		this.pack();
@@ -112,6 +142,11 @@ class FEFrame extends JFrame {
 		mbPanel.addMouseListener(new MouseAdapter() {
 			//When released, the rectangle has been drawn
 			public void mouseReleased(MouseEvent e) {
+				//Dragging with the right button pans instead
+				if (panFrom != null) {
+					panFrom = null;
+					return;
+				}
 				//Temporary variables to hold positions
 				start = startPosition;
 				end = endPosition;
@@ -129,6 +164,10 @@ class FEFrame extends JFrame {
 			
 			//Begins creating the triangle
 			public void mousePressed(MouseEvent e) {
+				if (SwingUtilities.isRightMouseButton(e)) {
+					panFrom = e.getPoint();
+					return;
+				}
 				startPosition = new Point(e.getX(), e.getY());
 				endPosition = startPosition;
 				repaint();
@@ -138,11 +177,44 @@ class FEFrame extends JFrame {
 		mbPanel.addMouseMotionListener(new MouseMotionAdapter() {
 			//End position constantly updated as mouse is moved to provide live updates
 			public void mouseDragged(MouseEvent e) {
+				//Moves the view with the mouse, a step per event
+				if (panFrom != null) {
+					mbPanel.pan(panFrom.x - e.getX(), panFrom.y - e.getY());
+					panFrom = e.getPoint();
+					return;
+				}
 				startPoint = startPosition;
 				endPosition = new Point(e.getX(), e.getY());
 				repaint();
 			}
 		});
+
+		//The wheel zooms in and out by two about the mouse
+		mbPanel.addMouseWheelListener(new MouseWheelListener() {
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				if (e.getWheelRotation() < 0) {
+					mbPanel.zoomIn(e.getX(), e.getY());
+				} else if (e.getWheelRotation() > 0) {
+					mbPanel.zoomOut(e.getX(), e.getY());
+				}
+			}
+		});
+
+		//Arrow keys pan, unless a text field has them
+		panKey("LEFT", -PAN_STEP, 0);
+		panKey("RIGHT", PAN_STEP, 0);
+		panKey("UP", 0, -PAN_STEP);
+		panKey("DOWN", 0, PAN_STEP);
+	}
+
+	// Binds a key to moving the view by dx, dy pixels
+	private void panKey(String key, int dx, int dy) {
+		mbPanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(key), "pan " + key);
+		mbPanel.getActionMap().put("pan " + key, new AbstractAction() {
+			public void actionPerformed(ActionEvent e) {
+				mbPanel.pan(dx, dy);
+			}
+		});
 	}
 
 	// Right hand side panel containing Julia set, controls, and information
@@ -150,6 +222,7 @@ class FEFrame extends JFrame {
 		JPanel right = new JPanel();
 
 		js = new GenerateJuliaSet();
+		mbPanel.setJulia(js);
 
 		mbPanel.addMouseListener(new MouseAdapter() {
 
@@ -207,9 +280,9 @@ class FEFrame extends JFrame {
 					startPoint = startPosition;
 					endPosition = new Point(e.getX(), e.getY());
 
-					// Updates the julia set
-					js.setComplex(c);
-					repaint();
+					// Previews the julia set, only its own panel needs painting
+					js.previewComplex(c);
+					js.repaint();
 				}
 
 				// Correctly append either + or - to imaginary part
@@ -233,6 +306,210 @@ class FEFrame extends JFrame {
 		return right;
 	}
 
+	// Menu of rendering options which apply to both panels
+	protected JMenuBar renderMenu() {
+		JMenuBar bar = new JMenuBar();
+		bar.add(fileMenu());
+		JMenu menu = new JMenu("Render");
+
+		// Iterates only the borders of rectangles and fills uniform ones
+		JCheckBoxMenuItem boundaryTracing = new JCheckBoxMenuItem("Boundary tracing");
+		boundaryTracing.setSelected(GenerateFractals.boundaryTracing);
+		boundaryTracing.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				GenerateFractals.boundaryTracing = boundaryTracing.isSelected();
+				mbPanel.requestRender();
+				js.requestRender();
+			}
+		});
+		menu.add(boundaryTracing);
+
+		// Samples the pixels on edges of the main panel again, on a jittered
+		// grid, once its frame is finished. Reuses the frame's pixels
+		JMenu antialiasing = new JMenu("Anti-aliasing");
+		ButtonGroup sampleGroup = new ButtonGroup();
+		for (int n = 1; n <= 16; n *= 4) {
+			final int samples = n;
+			JRadioButtonMenuItem item = new JRadioButtonMenuItem(samples == 1 ? "Off" : samples + "x on edges");
+			item.setSelected(samples == GenerateFractals.antialiasing);
+			item.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					GenerateFractals.antialiasing = samples;
+					mbPanel.requestRender();
+				}
+			});
+			sampleGroup.add(item);
+			antialiasing.add(item);
+		}
+		menu.add(antialiasing);
+
+		// Hovering shows a prerendered Julia set, then renders the exact point
+		JCheckBoxMenuItem refinePreviews = new JCheckBoxMenuItem("Refine Julia previews");
+		refinePreviews.setSelected(GenerateJuliaSet.refinePreviews);
+		refinePreviews.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				GenerateJuliaSet.refinePreviews = refinePreviews.isSelected();
+			}
+		});
+		menu.add(refinePreviews);
+
+		// Timings of the last frame drawn over each panel
+		JCheckBoxMenuItem showHud = new JCheckBoxMenuItem("Show frame timings");
+		showHud.setSelected(GenerateFractals.showHud);
+		showHud.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				GenerateFractals.showHud = showHud.isSelected();
+				mbPanel.repaint();
+				js.repaint();
+			}
+		});
+		menu.add(showHud);
+
+		bar.add(menu);
+		bar.add(colourMenu());
+		return bar;
+	}
+
+	// Menu for saving the main panel's frame, even part way through a long
+	// render, and opening it again to carry on. Files are read and written
+	// away from the event dispatch thread
+	protected JMenu fileMenu() {
+		JMenu menu = new JMenu("File");
+		JFileChooser chooser = new JFileChooser();
+
+		JMenuItem open = new JMenuItem("Open snapshot...");
+		open.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if (chooser.showOpenDialog(FEFrame.this) != JFileChooser.APPROVE_OPTION) {
+					return;
+				}
+				Path path = chooser.getSelectedFile().toPath();
+				inBackground(() -> {
+					try {
+						RenderSnapshot snapshot = RenderSnapshot.load(path);
+						SwingUtilities.invokeLater(() -> {
+							try {
+								mbPanel.load(snapshot);
+								// The iteration count is used to colour both panels
+								js.requestRender();
+							} catch (IllegalArgumentException err) {
+								showError("Could not open " + path, err);
+							}
+						});
+					} catch (IOException err) {
+						showError("Could not open " + path, err);
+					}
+				});
+			}
+		});
+		menu.add(open);
+
+		JMenuItem save = new JMenuItem("Save snapshot...");
+		save.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if (chooser.showSaveDialog(FEFrame.this) != JFileChooser.APPROVE_OPTION) {
+					return;
+				}
+				Path path = chooser.getSelectedFile().toPath();
+				inBackground(() -> {
+					try {
+						mbPanel.saveSnapshot(path);
+					} catch (IOException err) {
+						showError("Could not save " + path, err);
+					}
+				});
+			}
+		});
+		menu.add(save);
+
+		return menu;
+	}
+
+	private static void inBackground(Runnable task) {
+		Thread thread = new Thread(task, "snapshot");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void showError(String message, Exception e) {
+		System.err.println(e);
+		SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, message + ": " + e.getMessage(),
+				"Snapshot", JOptionPane.ERROR_MESSAGE));
+	}
+
+	// Menu of shading options. These only recolour the last frames, nothing is iterated again
+	protected JMenu colourMenu() {
+		JMenu menu = new JMenu("Colour");
+
+		ButtonGroup palettes = new ButtonGroup();
+		for (Palette palette : Palette.PALETTES) {
+			JRadioButtonMenuItem item = new JRadioButtonMenuItem(palette.name);
+			item.setSelected(palette == GenerateFractals.palette);
+			item.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					GenerateFractals.palette = palette;
+					recolour();
+				}
+			});
+			palettes.add(item);
+			menu.add(item);
+		}
+		menu.addSeparator();
+
+		// Number of times the palette repeats between 0 and the maximum iterations
+		JMenu cycles = new JMenu("Colour cycles");
+		ButtonGroup cycleGroup = new ButtonGroup();
+		for (int n = 1; n <= 16; n *= 2) {
+			final int count = n;
+			JRadioButtonMenuItem item = new JRadioButtonMenuItem("" + count);
+			item.setSelected(count == GenerateFractals.colourCycles);
+			item.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					GenerateFractals.colourCycles = count;
+					recolour();
+				}
+			});
+			cycleGroup.add(item);
+			cycles.add(item);
+		}
+		menu.add(cycles);
+
+		JCheckBoxMenuItem smooth = new JCheckBoxMenuItem("Smooth colouring");
+		smooth.setSelected(GenerateFractals.smoothColouring);
+		smooth.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				GenerateFractals.smoothColouring = smooth.isSelected();
+				recolour();
+			}
+		});
+		menu.add(smooth);
+
+		// Spreads the palette by how many pixels escape at each count, so
+		// high iteration caps don't leave the image in one colour
+		JCheckBoxMenuItem histogram = new JCheckBoxMenuItem("Histogram colouring");
+		histogram.setSelected(GenerateFractals.histogramColouring);
+		histogram.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				GenerateFractals.histogramColouring = histogram.isSelected();
+				recolour();
+			}
+		});
+		menu.add(histogram);
+
+		return menu;
+	}
+
+	// Shades both panels again after a palette change
+	protected void recolour() {
+		mbPanel.recolour();
+		js.recolour();
+	}
+
+	// Whether a range field no longer shows the rounded bound, i.e. it has been edited
+	static boolean edited(JTextField field, double bound) {
+		return Double.parseDouble(field.getText()) != (double) Math.round(bound * 10000) / 10000;
+	}
+
 	// Creates a rectangle using the mouse positions
 	static Rectangle2D.Float makeRectangle(int x1, int y1, int x2, int y2) {
 		Rectangle2D rectangle = new Rectangle2D.Float(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x1 - x2),
@@ -263,10 +540,10 @@ class FEFrame extends JFrame {
 		c.gridwidth = 3;
 		c.fill = GridBagConstraints.WEST;
 
-		JTextField iterations = new JTextField(20);
-		iterations.setText("" + GenerateFractals.MAX_ITERATIONS);
+		iterationsText = new JTextField(20);
+		iterationsText.setText("" + GenerateFractals.MAX_ITERATIONS);
 
-		controls.add(iterations, c);
+		controls.add(iterationsText, c);
 
 		c.fill = GridBagConstraints.BOTH;
 
@@ -345,15 +622,31 @@ class FEFrame extends JFrame {
 		button.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				try {
-					GenerateFractals.minX = Double.parseDouble(minXText.getText());
-					GenerateFractals.maxX = Double.parseDouble(maxXText.getText());
-					GenerateFractals.minY = Double.parseDouble(minYText.getText());
-					GenerateFractals.maxY = Double.parseDouble(maxYText.getText());
+					// The fields are rounded, so only replace the current (possibly
+					// deep zoomed) area if the user has typed a new range
+					if (edited(minXText, GenerateFractals.minX) || edited(maxXText, GenerateFractals.maxX)
+							|| edited(minYText, GenerateFractals.minY) || edited(maxYText, GenerateFractals.maxY)) {
+						GenerateFractals.minX = Double.parseDouble(minXText.getText());
+						GenerateFractals.maxX = Double.parseDouble(maxXText.getText());
+						GenerateFractals.minY = Double.parseDouble(minYText.getText());
+						GenerateFractals.maxY = Double.parseDouble(maxYText.getText());
+						GenerateFractals.deepZoom = null;
+					}
 
-					GenerateFractals.MAX_ITERATIONS = Integer.parseInt(iterations.getText());
+					// RenderRequest refuses a cap below 1, which would fail every render
+					int iterations = Integer.parseInt(iterationsText.getText());
+					if (iterations >= 1) {
+						GenerateFractals.MAX_ITERATIONS = iterations;
+					} else {
+						System.err.println("Iterations must be at least 1, not " + iterations);
+						iterationsText.setText("" + GenerateFractals.MAX_ITERATIONS);
+					}
 				} catch (NumberFormatException err) {
 					System.err.println(err);
 				}
+				// The iteration count is used to colour both panels
+				mbPanel.requestRender();
+				js.requestRender();
 				repaint();
 			}
 		});
@@ -376,12 +669,33 @@ class FEFrame extends JFrame {
 		bg.add(mandelbrot);
 		bg.add(burningShip);
 		
+		// Switching fractal type re-renders the main panel straight away
+		ActionListener fractalChanged = new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				mbPanel.requestRender();
+			}
+		};
+		mandelbrot.addActionListener(fractalChanged);
+		burningShip.addActionListener(fractalChanged);
+		
 		radioPanel.add(burningShip);
 		radioPanel.add(mandelbrot);
 				
 		c.gridy = 6;
 		
 		controls.add(radioPanel, c);
+		
+		c.gridy = 7;
+		
+		frameStats = new JLabel(" ");
+		
+		controls.add(frameStats, c);
+
+		c.gridy = 8;
+
+		juliaLatency = new JLabel(" ");
+
+		controls.add(juliaLatency, c);
 	
 		return controls;
 	}
@@ -0,0 +1,44 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters for a single frame, updated by every tile at once
+class FrameStats {
+
+	// Iterations each point was given, including those never actually computed
+	final LongAdder iterations = new LongAdder();
+	// Iterations avoided by proving that a point is inside the set
+	final LongAdder skippedIterations = new LongAdder();
+	// Points proved inside by the main cardioid and period-2 bulb tests
+	final LongAdder bulbPoints = new LongAdder();
+	// Points proved inside by their orbit repeating itself
+	final LongAdder cyclePoints = new LongAdder();
+	// Pixels iterated, and pixels filled in from a uniform border, when boundary tracing
+	final LongAdder evaluatedPixels = new LongAdder();
+	final LongAdder filledPixels = new LongAdder();
+	// Pixels copied from an earlier frame rather than iterated
+	final LongAdder reusedPixels = new LongAdder();
+	// Pixels on edges sampled again for anti-aliasing
+	final LongAdder edgePixels = new LongAdder();
+	// Tiles rendered, and the threads which rendered them
+	final LongAdder tiles = new LongAdder();
+	final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+	public String toString() {
+		long total = iterations.sum();
+		long skipped = skippedIterations.sum();
+		long percent = total == 0 ? 0 : Math.round(100.0 * skipped / total);
+
+		String text = "Skipped " + skipped + " of " + total + " iterations (" + percent + "%)";
+
+		long filled = filledPixels.sum();
+		if (filled > 0) {
+			text += ", filled " + filled + " of " + (filled + evaluatedPixels.sum()) + " pixels";
+		}
+		long edges = edgePixels.sum();
+		if (edges > 0) {
+			text += ", supersampled " + edges + " edge pixels";
+		}
+		return text;
+	}
+}
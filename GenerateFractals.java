@@ -4,19 +4,35 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Shape;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
 
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 // Responsible for displaying the image
 @SuppressWarnings("serial")
 public abstract class GenerateFractals extends JPanel {
 
+	// Colour of points inside the set
+	final static int BLACK = Color.BLACK.getRGB();
+
 	// Default values for the boundaries
 	final static double DEFAULT_MAXX = 2.0;
 	final static double DEFAULT_MINX = -2.0;
 	final static double DEFAULT_MAXY = 1.6;
 	final static double DEFAULT_MINY = -1.6;
 
+	// Settings of the controls, only read and written on the event dispatch
+	// thread. Each render takes a RenderRequest of them instead of reading them
+
 	// x, y coordinate ranges of displayed area
 	protected static double maxX = DEFAULT_MAXX;
 	protected static double minX = DEFAULT_MINX;
@@ -26,14 +42,385 @@ public abstract class GenerateFractals extends JPanel {
 	// Number of times testing for convergence
 	protected static int MAX_ITERATIONS = 100;
 
-	// Generate the Mandlebrot set
-	protected void computeMandel(int width, int height) {
-		// Go through every pixel
-		for (int y = 0; y < height; y++) {
-			for (int x = 0; x < width; x++) {
-				// Visit each point
-				checkPoint(coordToComplex(x, y, width, height), x, y);
+	// High precision viewport once zoomed in beyond what doubles can
+	// resolve, null otherwise. minX, maxX, minY and maxY then only approximate it
+	protected static DeepZoom deepZoom;
+
+	// Render by Mariani-Silver subdivision rather than pixel by pixel
+	protected static boolean boundaryTracing = false;
+
+	// How the iteration buffers are shaded. Changing these only needs recolour()
+	protected static Palette palette = Palette.RAINBOW;
+	protected static int colourCycles = 1;
+	protected static boolean smoothColouring = true;
+	protected static boolean histogramColouring = false;
+
+	// Draw the timings of the last frame over each panel
+	protected static boolean showHud = false;
+
+	// Samples taken in each pixel on an edge of the main panel's finished
+	// frames, 1 for no anti-aliasing
+	protected static int antialiasing = 1;
+
+	// Size of the image rendered for this panel
+	private final int frameWidth, frameHeight;
+
+	// Incremented by every render request; a render is abandoned as soon as
+	// it is no longer the latest generation
+	protected final AtomicInteger generation = new AtomicInteger();
+
+	// Runs renders one after another, away from the event dispatch thread
+	private final ExecutorService renderThread = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, getClass().getSimpleName() + " render");
+		t.setDaemon(true);
+		return t;
+	});
+
+	// Iterations and stats of the last completed frame, only used on the render thread
+	private IterationBuffer lastBuffer;
+	private FrameStats lastStats;
+	// Its pixels which reached the cap, if it can be resumed, and what it showed
+	private Unresolved lastUnresolved;
+	private String lastView;
+	// Where its pixels were sampled and with which kernel, for reusing them
+	private PixelGrid lastGrid;
+	private Class<?> lastKernel;
+
+	// The latest full resolution frame, finished or still rendering, for
+	// saving. Set on the render thread and read by whichever thread saves
+	private volatile RenderSnapshot snapshot;
+
+	// Colours of the frame being published, reused from frame to frame
+	private int[] pixels;
+
+	// An image which is no longer on screen, handed back by the event
+	// dispatch thread so the next frame can be drawn into it. An image is
+	// never written while it is the one being painted, so frames cannot tear
+	private final AtomicReference<BufferedImage> spareImage = new AtomicReference<>();
+
+	// Timings of this panel's frames, also published over JMX and to Flight Recorder
+	protected final RenderMetrics metrics = RenderMetrics.register(getClass().getSimpleName());
+
+	protected GenerateFractals(int frameWidth, int frameHeight) {
+		this.frameWidth = frameWidth;
+		this.frameHeight = frameHeight;
+	}
+
+	// Starts rendering a new frame in the background, cancelling any render
+	// still in progress. Must be called whenever the viewport, iteration
+	// count or fractal type changes. The frame is published after each pass
+	// of TileRenderer.PASSES, so a coarse version appears almost at once and
+	// is then refined, every pass reusing the samples of the one before
+	protected void requestRender() {
+		requestRender(request(), 1, null);
+	}
+
+	// Starts rendering the request, stopping after the pass with samples
+	// finestStep pixels apart. Less than a full pass, or a lower iteration
+	// cap than the panel's, gives a cheap preview. A non-null approximation,
+	// a smaller frame of roughly the same thing, is first shown scaled up to
+	// fill the panel
+	protected void requestRender(RenderRequest request, int finestStep, IterationBuffer approximation) {
+		final int gen = generation.incrementAndGet();
+		final int maxIterations = request.maxIterations;
+		final PixelGrid grid = request.grid();
+		final int samples = edgeSamples();
+		final long requested = System.nanoTime();
+
+		renderThread.execute(() -> {
+			// Superseded while still queued
+			if (generation.get() != gen) {
+				return;
+			}
+			long started = System.nanoTime();
+			EscapeKernel kernel = request.kernel();
+			String frameView = request.view() + kernel.getClass().getName();
+
+			// Boundary tracing fills pixels without their z, so cannot be resumed
+			boolean resumable = finestStep == 1 && approximation == null && kernel.canResume()
+					&& !request.tracesBoundaries();
+
+			// Same area with a higher cap, only the pixels which had not
+			// escaped need more iterations
+			if (resumable && lastUnresolved != null && frameView.equals(lastView)
+					&& maxIterations > lastUnresolved.maxIterations) {
+				IterationBuffer buffer = new IterationBuffer(lastBuffer);
+				Unresolved unresolved = resume(buffer, kernel, request, lastUnresolved, gen);
+
+				if (unresolved != null) {
+					antialias(buffer, kernel, request, samples, gen);
+					publish(buffer, kernel.stats, gen, request);
+					metrics.frame("resumed", request, buffer, kernel.stats, started - requested,
+							System.nanoTime() - started);
+					lastBuffer = buffer;
+					lastStats = kernel.stats;
+					lastUnresolved = unresolved;
+					// The grid's key holds the cap, so a later frame at the
+					// old cap cannot reuse these pixels
+					lastGrid = grid;
+					lastKernel = kernel.getClass();
+					snapshot = new RenderSnapshot(request, buffer, unresolved);
+				}
+				return;
+			}
+
+			// A moved or integer-ratio zoomed view of the last frame, only the
+			// pixels which do not line up with one of its samples are iterated
+			if (finestStep == 1 && approximation == null && grid.overlaps(lastGrid)
+					&& kernel.getClass() == lastKernel) {
+				IterationBuffer buffer = new IterationBuffer(frameWidth, frameHeight);
+				boolean[] reused = buffer.copySamples(lastBuffer, grid.columnsFrom(lastGrid), grid.rowsFrom(lastGrid));
+
+				if (reused != null) {
+					buffer.finishedTiles = new AtomicIntegerArray(tiles(buffer));
+					snapshot = new RenderSnapshot(request, buffer, null);
+
+					if (TileRenderer.render(request, kernel, buffer, generation, gen, reused)) {
+						antialias(buffer, kernel, request, samples, gen);
+						publish(buffer, kernel.stats, gen, request);
+						metrics.frame("reused", request, buffer, kernel.stats, started - requested,
+								System.nanoTime() - started);
+						lastBuffer = buffer;
+						lastStats = kernel.stats;
+						lastUnresolved = null;
+						lastView = frameView;
+						lastGrid = grid;
+					}
+					return;
+				}
+			}
+
+			IterationBuffer buffer = new IterationBuffer(frameWidth, frameHeight);
+			if (resumable) {
+				buffer.unresolved = new Unresolved(frameWidth, frameHeight, maxIterations);
+			}
+			if (finestStep == 1 && approximation == null) {
+				buffer.finishedTiles = new AtomicIntegerArray(tiles(buffer));
+				snapshot = new RenderSnapshot(request, buffer, buffer.unresolved);
+			}
+			int known = 0;
+
+			if (approximation != null) {
+				int scale = frameWidth / approximation.width;
+
+				for (int y = 0; y < frameHeight; y += scale) {
+					for (int x = 0; x < frameWidth; x += scale) {
+						buffer.copy(approximation, x / scale, y / scale, x, y);
+						buffer.fill(x, y, Math.min(x + scale, frameWidth), Math.min(y + scale, frameHeight));
+					}
+				}
+				publish(buffer, kernel.stats, gen, request);
+			}
+
+			for (int step : TileRenderer.PASSES) {
+				if (step < finestStep) {
+					break;
+				}
+				if (!TileRenderer.render(request, kernel, buffer, generation, gen, step, known)) {
+					return;
+				}
+				publish(buffer, kernel.stats, gen, request);
+				known = step;
+			}
+			// The aliased frame is shown while its edges are sampled
+			if (finestStep == 1 && approximation == null) {
+				antialias(buffer, kernel, request, samples, gen);
+				if (buffer.edges != null) {
+					publish(buffer, kernel.stats, gen, request);
+				}
+			}
+			metrics.frame(finestStep == 1 && approximation == null ? "full" : "preview", request, buffer,
+					kernel.stats, started - requested, System.nanoTime() - started);
+			lastBuffer = buffer;
+			lastStats = kernel.stats;
+			lastUnresolved = buffer.unresolved;
+			lastView = frameView;
+			lastGrid = finestStep == 1 && approximation == null ? grid : null;
+			lastKernel = kernel.getClass();
+		});
+	}
+
+	// Shows a frame read from a snapshot, first rendering any tiles which
+	// were not finished when it was saved. Its cap, or a higher one, is
+	// then carried on from its unescaped pixels like any resumed frame
+	protected void requestRender(RenderSnapshot loaded) {
+		final int gen = generation.incrementAndGet();
+		final RenderRequest request = loaded.request
+				.withColouring(loaded.request.maxIterations, palette, colourCycles, smoothColouring)
+				.withHistogramColouring(histogramColouring);
+		final int samples = edgeSamples();
+		final long requested = System.nanoTime();
+
+		renderThread.execute(() -> {
+			if (generation.get() != gen) {
+				return;
+			}
+			long started = System.nanoTime();
+			EscapeKernel kernel = request.kernel();
+			IterationBuffer buffer = loaded.buffer;
+			buffer.unresolved = loaded.unresolved;
+			snapshot = loaded;
+
+			boolean[] finished = loaded.finishedPixels();
+			if (!loaded.complete()) {
+				if (finished != null) {
+					publish(buffer, kernel.stats, gen, request);
+				}
+				boolean rendered = finished != null
+						? TileRenderer.render(request, kernel, buffer, generation, gen, finished)
+						: TileRenderer.render(request, kernel, buffer, generation, gen, 1, 0);
+				if (!rendered) {
+					return;
+				}
+			}
+			antialias(buffer, kernel, request, samples, gen);
+			publish(buffer, kernel.stats, gen, request);
+			metrics.frame("loaded", request, buffer, kernel.stats, started - requested, System.nanoTime() - started);
+			lastBuffer = buffer;
+			lastStats = kernel.stats;
+			lastUnresolved = buffer.unresolved;
+			lastView = request.view() + kernel.getClass().getName();
+			lastGrid = request.grid();
+			lastKernel = kernel.getClass();
+		});
+	}
+
+	// Saves the latest full resolution frame, with only the tiles finished
+	// so far if it is still rendering
+	protected void saveSnapshot(Path path) throws IOException {
+		RenderSnapshot saving = snapshot;
+		if (saving == null) {
+			throw new IOException("Nothing has been rendered yet");
+		}
+		saving.save(path);
+	}
+
+	// Samples the edges of a finished frame again, if anti-aliasing is on.
+	// Left without them if a newer render was requested
+	private void antialias(IterationBuffer buffer, EscapeKernel kernel, RenderRequest request, int samples, int gen) {
+		if (samples > 1) {
+			buffer.edges = EdgeSamples.render(request, kernel, buffer, samples, generation, gen);
+		}
+	}
+
+	// Samples in each edge pixel of this panel's finished frames. Called on
+	// the event dispatch thread
+	protected int edgeSamples() {
+		return 1;
+	}
+
+	private static int tiles(IterationBuffer buffer) {
+		return ((buffer.width + TileRenderer.TILE_SIZE - 1) / TileRenderer.TILE_SIZE)
+				* ((buffer.height + TileRenderer.TILE_SIZE - 1) / TileRenderer.TILE_SIZE);
+	}
+
+	// Carries on with the unresolved pixels of the last frame up to the
+	// request's cap, one parallel task per tile. Returns the pixels which are
+	// still unresolved, or null if a newer render was requested
+	private Unresolved resume(IterationBuffer buffer, EscapeKernel kernel, RenderRequest request,
+			Unresolved previous, int gen) {
+		int maxIterations = request.maxIterations;
+		Unresolved unresolved = new Unresolved(buffer.width, buffer.height, maxIterations);
+
+		TileRenderer.POOL.submit(() -> IntStream.range(0, previous.tiles()).parallel().forEach(tile -> {
+			if (generation.get() != gen) {
+				return;
+			}
+			double[] c = new double[2];
+			double[] z = new double[2];
+			long added = 0;
+
+			for (int k = 0; k < previous.count(tile); k++) {
+				int i = previous.pixel(tile, k);
+				int x = i % buffer.width;
+				int y = i / buffer.width;
+
+				request.pointAt(kernel, x, y, c);
+				z[0] = previous.zr(tile, k);
+				z[1] = previous.zi(tile, k);
+
+				int n = kernel.resume(c[0], c[1], previous.maxIterations, maxIterations, z);
+				buffer.set(x, y, n, z[0], z[1]);
+				added += n - previous.maxIterations;
+
+				if (n == maxIterations) {
+					unresolved.add(x, y, z[0], z[1]);
+				}
+			}
+			kernel.stats.iterations.add(added);
+		})).join();
+
+		return generation.get() == gen ? unresolved : null;
+	}
+
+	// The panel's current settings as a request for the whole panel. Called
+	// on the event dispatch thread, subclasses add their viewport and fractal
+	protected RenderRequest request() {
+		return RenderRequest.DEFAULT.withSize(frameWidth, frameHeight).withIterations(MAX_ITERATIONS)
+				.withColouring(MAX_ITERATIONS, palette, colourCycles, smoothColouring)
+				.withHistogramColouring(histogramColouring).withBoundaryTracing(boundaryTracing);
+	}
+
+	// Shades the last frame again with the current palette settings, without
+	// iterating anything. Must be called whenever the palette, colour cycling
+	// or smoothing changes
+	protected void recolour() {
+		final RenderRequest colouring = request();
+
+		renderThread.execute(() -> {
+			if (lastBuffer != null) {
+				publish(lastBuffer, lastStats, generation.get(), colouring);
+			}
+		});
+	}
+
+	// Colours the buffer as the request says and hands the image to the
+	// event dispatch thread
+	private void publish(IterationBuffer buffer, FrameStats stats, int gen, RenderRequest request) {
+		if (pixels == null) {
+			pixels = new int[frameWidth * frameHeight];
+		}
+		BufferedImage image = spareImage.getAndSet(null);
+		if (image == null) {
+			image = new BufferedImage(frameWidth, frameHeight, BufferedImage.TYPE_INT_RGB);
+		}
+		long start = System.nanoTime();
+		colourImage(buffer, pixels, image, request);
+		metrics.colour(pixels.length, System.nanoTime() - start);
+
+		final BufferedImage frame = image;
+		SwingUtilities.invokeLater(() -> {
+			// Viewport may have changed between finishing and publishing
+			if (generation.get() == gen) {
+				spareImage.set(showImage(frame, stats));
+				repaint();
+			} else {
+				spareImage.set(frame);
 			}
+		});
+	}
+
+	// Replaces the image drawn by paintComponent with a newly completed one,
+	// returning the image it replaces
+	protected abstract BufferedImage showImage(BufferedImage image, FrameStats stats);
+
+	// Draws the timings of the last frame in the top left corner, if turned on
+	protected void paintHud(Graphics g) {
+		if (!showHud) {
+			return;
+		}
+		String[] lines = metrics.summary();
+		int lineHeight = g.getFontMetrics().getHeight();
+		int width = 0;
+		for (String line : lines) {
+			width = Math.max(width, g.getFontMetrics().stringWidth(line));
+		}
+
+		g.setColor(new Color(0, 0, 0, 160));
+		g.fillRect(4, 4, width + 8, lines.length * lineHeight + 6);
+		g.setColor(Color.WHITE);
+		for (int i = 0; i < lines.length; i++) {
+			g.drawString(lines[i], 8, 6 + (i + 1) * lineHeight - g.getFontMetrics().getDescent());
 		}
 	}
 
@@ -46,24 +433,50 @@ public abstract class GenerateFractals extends JPanel {
 		return new Complex(a, b);
 	}
 
-	// Goes through each point
-	protected abstract void checkPoint(Complex c, int x, int y);
+	// Shades the whole buffer into the image, one parallel task per row
+	static void colourImage(IterationBuffer buffer, int[] pixels, BufferedImage image, RenderRequest request) {
+		colourPixels(buffer, pixels, request);
 
-	// Colours the point according to if it belongs in the Mandlebrot set
-	protected int colourPoint(int iterations, Complex c) {
-		int colour;
+		// One bulk copy into the raster rather than a colour model conversion
+		// per pixel. Unlike taking the DataBufferInt's array, this keeps the
+		// image eligible for acceleration
+		image.getRaster().setDataElements(0, 0, buffer.width, buffer.height, pixels);
+	}
 
-		// Sets the colour of the pixel
-		if (iterations == MAX_ITERATIONS) {
-			colour = Color.BLACK.getRGB();
-		} else {
-			// Smooths the colouring
-			float smoothColour = (float) (iterations + 5 - Math.log(Math.log(c.modulus())) / Math.log(2))
-					/ MAX_ITERATIONS;
+	// Shades the whole buffer into pixels with the request's palette
+	// settings, one parallel task per row. Histogram colouring first counts
+	// the buffer's iterations, so it only suits whole frames
+	static void colourPixels(IterationBuffer buffer, int[] pixels, RenderRequest request) {
+		int maxIterations = request.colourIterations;
+		Palette p = request.palette;
+		boolean smoothing = request.smoothColouring;
+		double scale = 0.9 * request.colourCycles / maxIterations;
+		EqualisedColouring equalised = request.histogramColouring ? EqualisedColouring.of(buffer, request) : null;
+
+		TileRenderer.POOL.submit(() -> IntStream.range(0, buffer.height).parallel().forEach(y -> {
+			int end = (y + 1) * buffer.width;
+
+			for (int i = y * buffer.width; i < end; i++) {
+				pixels[i] = equalised != null ? equalised.shade(buffer.iterations[i], buffer.smooth[i])
+						: shade(buffer.iterations[i], buffer.smooth[i], maxIterations, p, scale, smoothing);
+			}
+		})).join();
+
+		if (buffer.edges != null) {
+			buffer.edges.colour(pixels, maxIterations, p, scale, smoothing, equalised);
+		}
+	}
 
-			colour = Color.HSBtoRGB((float) (0.9 * smoothColour), 0.9f, 0.9f);
+	// Colour of a point with the given iteration count and smooth iteration
+	// count. Points which reached maxIterations are inside. scale maps
+	// iterations onto the palette
+	static int shade(int iterations, float smooth, int maxIterations, Palette palette, double scale,
+			boolean smoothing) {
+		// Sets the colour of the pixel
+		if (iterations == maxIterations) {
+			return BLACK;
 		}
-		return colour;
+		return palette.colour(scale * (smoothing ? smooth : iterations));
 	}
 }
 
@@ -73,19 +486,30 @@ class GenerateMandlebrotBurningShip extends GenerateFractals {
 
 	private BufferedImage bufferedImage;
 
+	private GenerateJuliaSet julia;
+
 	// Constant screen dimensions
 	final static int MBBS_WIDTH = 900;
 	final static int MBBS_HEIGHT = 700;
 
 	protected GenerateMandlebrotBurningShip() {
+		super(MBBS_WIDTH, MBBS_HEIGHT);
 		bufferedImage = new BufferedImage(MBBS_WIDTH, MBBS_HEIGHT, BufferedImage.TYPE_INT_RGB);
 	}
 
+	protected BufferedImage showImage(BufferedImage image, FrameStats stats) {
+		BufferedImage shown = bufferedImage;
+		bufferedImage = image;
+		FEFrame.frameStats.setText(stats.toString());
+
+		return shown;
+	}
+
+	// Only draws the last completed frame, rendering happens in the background
 	public void paintComponent(Graphics g) {
 		super.paintComponent(g);
 		Graphics2D g2 = (Graphics2D) g;
 
-		computeMandel(MBBS_WIDTH, MBBS_HEIGHT);
 		g.drawImage(bufferedImage, 0, 0, this);
 
 		// Draw the rectangle if the mouse is being dragged
@@ -95,6 +519,7 @@ class GenerateMandlebrotBurningShip extends GenerateFractals {
 					FEFrame.endPosition.y);
 			g2.draw(r);
 		}
+		paintHud(g);
 
 		// Checks if dragging has just ended and the user hasn't just clicked
 		// once (no drag)
@@ -102,87 +527,137 @@ class GenerateMandlebrotBurningShip extends GenerateFractals {
 
 			FEFrame.dragEnded = false;
 			
+			navigate(Math.min(FEFrame.start.x, FEFrame.end.x), Math.min(FEFrame.start.y, FEFrame.end.y),
+					Math.max(FEFrame.start.x, FEFrame.end.x), Math.max(FEFrame.start.y, FEFrame.end.y));
+		}
+	}
+
+	// Moves the view by dx, dy pixels, only the strips uncovered are iterated
+	protected void pan(int dx, int dy) {
+		navigate(dx, dy, dx + MBBS_WIDTH, dy + MBBS_HEIGHT);
+	}
+
+	// Halves or doubles the size of the area, keeping pixel (x, y) where it is.
+	// Every other pixel of a zoom in, and the whole of the old frame in a zoom
+	// out, are samples already iterated
+	protected void zoomIn(int x, int y) {
+		navigate(x / 2, y / 2, x / 2 + MBBS_WIDTH / 2, y / 2 + MBBS_HEIGHT / 2);
+	}
+
+	protected void zoomOut(int x, int y) {
+		navigate(-x, -y, 2 * MBBS_WIDTH - x, 2 * MBBS_HEIGHT - y);
+	}
+
+	// Shows the area under the pixel rectangle (x0, y0) to (x1, y1) of the
+	// current view, which may extend past its edges
+	protected void navigate(int x0, int y0, int x1, int y1) {
+		if (deepZoom != null) {
+			// Doubles can no longer place the rectangle, zoom about the
+			// high precision centre instead
+			deepZoom = deepZoom.zoom(x0, y0, x1, y1, MBBS_WIDTH, MBBS_HEIGHT);
+
+			minX = deepZoom.minX();
+			maxX = deepZoom.maxX();
+			minY = deepZoom.minY();
+			maxY = deepZoom.maxY();
+		} else {
 			// Set maximum and minimum points of the rectangle
-			Complex min = null;
-			Complex max = null;
-
-			// This checks the direction in which the rectangle was
-			// drawn
-			// and selects points accordingly
-			if (FEFrame.end.y - FEFrame.start.y > 0) {
-				if (FEFrame.end.x - FEFrame.start.x > 0) {
-					// End is bottom right of start
-					min = coordToComplex(FEFrame.start.x, FEFrame.start.y, MBBS_WIDTH, MBBS_HEIGHT);
-					max = coordToComplex(FEFrame.end.x, FEFrame.end.y, MBBS_WIDTH, MBBS_HEIGHT);
-				} else {
-					// End is bottom left of start
-					min = coordToComplex(FEFrame.end.x, FEFrame.start.y, MBBS_WIDTH, MBBS_HEIGHT);
-					max = coordToComplex(FEFrame.start.x, FEFrame.end.y, MBBS_WIDTH, MBBS_HEIGHT);
-				}
-			} else {
-				if (FEFrame.end.x - FEFrame.start.x > 0) {
-					// End is top right of start
-					min = coordToComplex(FEFrame.start.x, FEFrame.end.y, MBBS_WIDTH, MBBS_HEIGHT);
-					max = coordToComplex(FEFrame.end.x, FEFrame.start.y, MBBS_WIDTH, MBBS_HEIGHT);
-				} else {
-					// End is top left of start
-					min = coordToComplex(FEFrame.end.x, FEFrame.end.y, MBBS_WIDTH, MBBS_HEIGHT);
-					max = coordToComplex(FEFrame.start.x, FEFrame.start.y, MBBS_WIDTH, MBBS_HEIGHT);
-				}
-			}
+			Complex min = coordToComplex(x0, y0, MBBS_WIDTH, MBBS_HEIGHT);
+			Complex max = coordToComplex(x1, y1, MBBS_WIDTH, MBBS_HEIGHT);
+
 			// //Assigning new bounds
 			minX = min.getReal();
 			maxX = max.getReal();
 			minY = min.getImaginary();
 			maxY = max.getImaginary();
 
-			// Updating the text fields to match the new bounds
-			FEFrame.minXText.setText("" + (double) Math.round(minX * 10000) / 10000);
-			FEFrame.maxXText.setText("" + (double) Math.round(maxX * 10000) / 10000);
-			FEFrame.minYText.setText("" + (double) Math.round(minY * 10000) / 10000);
-			FEFrame.maxYText.setText("" + (double) Math.round(maxY * 10000) / 10000);
-
-			repaint();
+			// Switch to deep zoom before neighbouring pixels merge
+			if (DeepZoom.needed(minX, maxX, MBBS_WIDTH) || DeepZoom.needed(minY, maxY, MBBS_HEIGHT)) {
+				deepZoom = DeepZoom.of(minX, maxX, minY, maxY);
+			}
 		}
+
+		// Updating the text fields to match the new bounds
+		FEFrame.minXText.setText("" + (double) Math.round(minX * 10000) / 10000);
+		FEFrame.maxXText.setText("" + (double) Math.round(maxX * 10000) / 10000);
+		FEFrame.minYText.setText("" + (double) Math.round(minY * 10000) / 10000);
+		FEFrame.maxYText.setText("" + (double) Math.round(maxY * 10000) / 10000);
+
+		requestRender();
 	}
 
 	protected void init() {
 		this.setPreferredSize(new Dimension(MBBS_WIDTH, MBBS_HEIGHT));
 	}
 
-	// Returns the number of iterations that each point takes
-	protected void checkPoint(Complex c, int x, int y) {
-		int iterations = 0;
-		Complex c2 = null;
-		
-		// If normal mandlebrot is selected
-		if (!FEFrame.burningShip.isSelected()) {
-			c2 = c;
-
-			// Check if it goes to infinity
-			while (iterations < MAX_ITERATIONS && c2.modulusSquared() <= 4) {
-				// (zn) = (zn-1)^2 + c
-				c2 = c2.square().add(c);
-				iterations++;
-			}
+	// Shows a saved frame, setting the controls to what it was rendered with
+	protected void load(RenderSnapshot loaded) {
+		RenderRequest request = loaded.request;
+		if (request.fractal == RenderRequest.Fractal.JULIA) {
+			throw new IllegalArgumentException("Snapshot is of a Julia set");
+		}
+		if (request.width != MBBS_WIDTH || request.height != MBBS_HEIGHT) {
+			throw new IllegalArgumentException("Snapshot is " + request.width + "x" + request.height + ", expected "
+					+ MBBS_WIDTH + "x" + MBBS_HEIGHT);
+		}
+
+		deepZoom = request.deepZoom;
+		minX = request.minX;
+		maxX = request.maxX;
+		minY = request.minY;
+		maxY = request.maxY;
+		MAX_ITERATIONS = request.maxIterations;
+
+		if (request.fractal == RenderRequest.Fractal.BURNING_SHIP) {
+			FEFrame.burningShip.setSelected(true);
 		} else {
-			double zreal = 0;
-			double zimaginary = 0;
+			FEFrame.mandelbrot.setSelected(true);
+		}
+		FEFrame.minXText.setText("" + (double) Math.round(minX * 10000) / 10000);
+		FEFrame.maxXText.setText("" + (double) Math.round(maxX * 10000) / 10000);
+		FEFrame.minYText.setText("" + (double) Math.round(minY * 10000) / 10000);
+		FEFrame.maxYText.setText("" + (double) Math.round(maxY * 10000) / 10000);
+		FEFrame.iterationsText.setText("" + MAX_ITERATIONS);
+
+		requestRender(loaded);
+		if (julia != null) {
+			julia.prefetch(request);
+		}
+	}
 
-			while (iterations < MAX_ITERATIONS && zreal * zreal + zimaginary * zimaginary < 4) {
-				double zrealUpdated = zreal * zreal - zimaginary * zimaginary + c.getReal();
-				double zimaginaryUpdated = 2 * Math.abs(zreal) * Math.abs(zimaginary) + c.getImaginary();
+	// Julia panel whose previews are prerendered across this panel's viewport
+	protected void setJulia(GenerateJuliaSet julia) {
+		this.julia = julia;
+	}
 
-				zreal = zrealUpdated;
-				zimaginary = zimaginaryUpdated;
+	// Every new viewport has its Julia sets prerendered
+	protected void requestRender(RenderRequest request, int finestStep, IterationBuffer approximation) {
+		super.requestRender(request, finestStep, approximation);
 
-				iterations += 1;
-			}
-			c2 = new Complex(zreal, zimaginary);
+		if (julia != null) {
+			julia.prefetch(request);
+		}
+	}
+
+	// The viewport, in deep zoom if it has gone past double precision, and
+	// whether it is the Mandelbrot set or the Burning Ship
+	protected RenderRequest request() {
+		RenderRequest request = super.request();
+
+		if (deepZoom != null) {
+			request = request.withDeepZoom(deepZoom);
+		} else {
+			request = request.withViewport(minX, maxX, minY, maxY);
+		}
+		if (FEFrame.burningShip.isSelected()) {
+			request = request.withFractal(RenderRequest.Fractal.BURNING_SHIP);
 		}
-		
-		// Colour point
-		bufferedImage.setRGB(x, y, colourPoint(iterations, c2));
+		return request;
+	}
+
+	// Zoomed views alias along the boundary, so only this panel anti-aliases
+	protected int edgeSamples() {
+		return antialiasing;
 	}
 }
 
@@ -194,35 +669,56 @@ class GenerateJuliaSet extends GenerateFractals {
 	private boolean outOfMandel = true;
 
 	private Complex z;
-	
-	// x, y coordinate ranges of displayed area
-	protected static double maxX, minX, maxY, minY;
 
 	// Constant screen dimensions
 	final static int JULIA_WIDTH = 300;
 	final static int JULIA_HEIGHT = 300;
 
+	// Iterations before a point is taken to be in the set
+	final static int JULIA_ITERATIONS = JULIA_HEIGHT + JULIA_WIDTH;
+
 	private BufferedImage juliaSetImg;
 
-	protected GenerateJuliaSet(Complex z) {
-		this.z = z;
+	// While the mouse moves the set is previewed: only the coarse passes, at
+	// PREVIEW_ITERATIONS. SETTLE_MS after the last move it is refined to full quality
+	final static int PREVIEW_ITERATIONS = 150;
+	final static int SETTLE_MS = 120;
 
-		juliaSetImg = new BufferedImage(JULIA_WIDTH, JULIA_HEIGHT, BufferedImage.TYPE_INT_RGB);
+	// Previews slower than this drop to the coarsest pass, previews faster
+	// than a quarter of it go back to the finer one
+	final static long LATENCY_TARGET_MS = 30;
+
+	private final Timer settle = new Timer(SETTLE_MS, e -> requestRender());
+
+	// Whether a hover preview taken from the atlas is then rendered for the
+	// exact point, rather than only when the mouse stops
+	protected static boolean refinePreviews = true;
 
-		maxX = DEFAULT_MAXX;
-		minX = DEFAULT_MINX;
-		minY = DEFAULT_MINY;
-		maxY = DEFAULT_MAXY;
+	// Julia sets prerendered across the Mandelbrot viewport
+	private final JuliaAtlas atlas = new JuliaAtlas();
+
+	// Spacing of the finest pass rendered while previewing
+	private int previewStep = 2;
+	private boolean previewing;
+
+	// When the frame being rendered was requested, and whether it has been
+	// shown yet. Only used on the event dispatch thread
+	private long requestedAt;
+	private boolean shown = true;
+	// Longest wait from a move to its first image since the mouse last started moving
+	private long worstLatency;
+
+	protected GenerateJuliaSet(Complex z) {
+		this();
+		this.z = z;
 	}
 
 	protected GenerateJuliaSet() {
+		super(JULIA_WIDTH, JULIA_HEIGHT);
 
 		juliaSetImg = new BufferedImage(JULIA_WIDTH, JULIA_HEIGHT, BufferedImage.TYPE_INT_RGB);
-
-		maxX = DEFAULT_MAXX;
-		minX = DEFAULT_MINX;
-		minY = DEFAULT_MINY;
-		maxY = DEFAULT_MAXY;
+		// Fires once after the mouse stops, not every SETTLE_MS from then on
+		settle.setRepeats(false);
 	}
 
 	protected void setOutOfMandel(boolean b) {
@@ -236,27 +732,81 @@ class GenerateJuliaSet extends GenerateFractals {
 	// Updates the complex number which is used
 	protected void setComplex(Complex z) {
 		this.z = z;
+		settle.stop();
+		requestRender();
 	}
-	
-	// Generate the Mandlebrot set
-	protected void computeMandel() {
-		// Go through every pixel
-		for (int y = 0; y < JULIA_HEIGHT; y++) {
-			for (int x = 0; x < JULIA_WIDTH; x++) {
-				
-				//Visit each point
-				checkPoint(coordToComplex(x, y), x, y);
+
+	// Follows the mouse: renders a quick preview for z, replacing any render
+	// still in progress, and the full set once the mouse has stopped
+	protected void previewComplex(Complex z) {
+		this.z = z;
+		// First move since the mouse stopped
+		if (!settle.isRunning()) {
+			worstLatency = 0;
+		}
+		RenderRequest preview = request().withIterationCap(Math.min(PREVIEW_ITERATIONS, JULIA_ITERATIONS));
+
+		// Show the nearest prerendered set at once, then render the exact one
+		// unless only the prerendered sets are wanted while moving
+		IterationBuffer thumbnail = atlas.get(z.getReal(), z.getImaginary(), preview.maxIterations);
+		if (thumbnail != null && !refinePreviews) {
+			requestRender(preview, Integer.MAX_VALUE, thumbnail);
+		} else {
+			requestRender(preview, previewStep, thumbnail);
+		}
+		settle.restart();
+	}
+
+	// Nothing to render until a point has been chosen
+	protected void requestRender(RenderRequest request, int finestStep, IterationBuffer approximation) {
+		if (z != null) {
+			previewing = finestStep > 1 || request.maxIterations < JULIA_ITERATIONS;
+			requestedAt = System.nanoTime();
+			shown = false;
+			super.requestRender(request, finestStep, approximation);
+		}
+	}
+
+	// Measures how long the first image of each request took to appear
+	protected BufferedImage showImage(BufferedImage image, FrameStats stats) {
+		BufferedImage old = juliaSetImg;
+		juliaSetImg = image;
+
+		if (!shown) {
+			shown = true;
+			long latency = (System.nanoTime() - requestedAt) / 1000000;
+
+			if (previewing) {
+				worstLatency = Math.max(worstLatency, latency);
+
+				// Keep previews within the target
+				if (latency > LATENCY_TARGET_MS) {
+					previewStep = TileRenderer.PASSES[0];
+				} else if (latency < LATENCY_TARGET_MS / 4) {
+					previewStep = 2;
+				}
 			}
+			FEFrame.juliaLatency.setText("Julia latency: " + latency + " ms, worst " + worstLatency + " ms");
 		}
+		return old;
 	}
 	
-	//Converts the coordinates to its complex number equivalent
-	protected static Complex coordToComplex(int x, int y) {
-		// Mapping points to complex number
-		double a = minX + x * (maxX - minX) / JULIA_WIDTH;
-		double b = minY + y * (maxY - minY) / JULIA_HEIGHT;
+	// The Julia set of the chosen point over its own fixed bounds, coloured
+	// like the Mandelbrot panel
+	protected RenderRequest request() {
+		RenderRequest request = super.request().withViewport(DEFAULT_MINX, DEFAULT_MAXX, DEFAULT_MINY, DEFAULT_MAXY)
+				.withIterationCap(JULIA_ITERATIONS).withFractal(RenderRequest.Fractal.JULIA);
 
-		return new Complex(a, b);
+		return z == null ? request : request.withJulia(z.getReal(), z.getImaginary());
+	}
+
+	// Prerenders thumbnails for the points of the Mandelbrot viewport, at the
+	// preview iteration cap
+	protected void prefetch(RenderRequest mandelbrot) {
+		RenderRequest thumbnail = request().withSize(JuliaAtlas.THUMBNAIL_SIZE, JuliaAtlas.THUMBNAIL_SIZE)
+				.withIterationCap(Math.min(PREVIEW_ITERATIONS, JULIA_ITERATIONS));
+
+		atlas.prefetch(mandelbrot.minX, mandelbrot.maxX, mandelbrot.minY, mandelbrot.maxY, thumbnail);
 	}
 
 	public void paintComponent(Graphics g) {
@@ -264,31 +814,11 @@ class GenerateJuliaSet extends GenerateFractals {
 		// If in Mandel display Julia set in relation to position; otherwise
 		// show black
 		if (!outOfMandel) {
-			computeMandel();
 			g.drawImage(juliaSetImg, 0, 0, this);
 		} else {
 			g.setColor(Color.BLACK);
 			g.fillRect(0, 0, JULIA_WIDTH, JULIA_HEIGHT);
 		}
-	}
-
-	// Returns the number of iterations that each point takes
-	protected void checkPoint(Complex c, int x, int y) {
-		int iterations;
-		boolean k = false;
-		for (iterations = 0; iterations < JULIA_HEIGHT + JULIA_WIDTH; iterations++) {
-
-			c = c.square().add(z);
-
-			if (c.modulusSquared() > 4) {
-				k = true;
-				break;
-			}
-		}
-		if (!k) {
-			iterations = JULIA_HEIGHT + JULIA_WIDTH - 1;
-		}
-		// Colour point
-		juliaSetImg.setRGB(x, y, colourPoint(iterations, c));
+		paintHud(g);
 	}
 }
\ No newline at end of file
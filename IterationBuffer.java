@@ -0,0 +1,167 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+// Escape-time results of every pixel of a frame, kept apart from its colours
+// so that the frame can be shaded again without iterating it
+class IterationBuffer {
+
+	final static double LOG_2 = Math.log(2);
+
+	final int width, height;
+
+	// Iteration count of each pixel, row by row
+	final int[] iterations;
+	// Smooth (fractional) iteration count, from how far past the escape
+	// radius the final z landed
+	final float[] smooth;
+
+	// Where the pixels which reach the iteration cap are recorded, if the
+	// frame is to be resumable
+	Unresolved unresolved;
+
+	// Extra samples of its edges for anti-aliasing, or null
+	EdgeSamples edges;
+
+	// Counters of the render which filled it, when it came from RenderService
+	FrameStats stats;
+
+	// Tiles whose pixels are final, marked by a full resolution render as
+	// each one finishes, or null if not tracked
+	AtomicIntegerArray finishedTiles;
+
+	IterationBuffer(int width, int height) {
+		this.width = width;
+		this.height = height;
+
+		iterations = new int[width * height];
+		smooth = new float[width * height];
+	}
+
+	// A copy of other's results, without its unresolved pixels
+	IterationBuffer(IterationBuffer other) {
+		width = other.width;
+		height = other.height;
+
+		iterations = other.iterations.clone();
+		smooth = other.smooth.clone();
+	}
+
+	// Records the iteration count and final z = zr + zi i of pixel (x, y)
+	void set(int x, int y, int n, double zr, double zi) {
+		int i = y * width + x;
+
+		iterations[i] = n;
+		smooth[i] = smooth(n, zr, zi);
+	}
+
+	// Copies the result of pixel (fromX, fromY) to pixel (x, y)
+	void copy(int fromX, int fromY, int x, int y) {
+		int from = fromY * width + fromX;
+		int i = y * width + x;
+
+		iterations[i] = iterations[from];
+		smooth[i] = smooth[from];
+	}
+
+	// Copies the result of pixel (fromX, fromY) of another buffer to pixel (x, y)
+	void copy(IterationBuffer from, int fromX, int fromY, int x, int y) {
+		int source = fromY * from.width + fromX;
+		int i = y * width + x;
+
+		iterations[i] = from.iterations[source];
+		smooth[i] = from.smooth[source];
+	}
+
+	// Copies the samples of an earlier frame which land on pixels of this
+	// one, given the earlier column and row of each column and row, or -1.
+	// Returns which pixels were copied, or null if none were
+	boolean[] copySamples(IterationBuffer from, int[] columns, int[] rows) {
+		boolean[] copied = new boolean[width * height];
+		boolean any = false;
+
+		for (int y = 0; y < height; y++) {
+			if (rows[y] < 0) {
+				continue;
+			}
+			for (int x = 0; x < width; x++) {
+				if (columns[x] >= 0) {
+					copy(from, columns[x], rows[y], x, y);
+					copied[y * width + x] = true;
+					any = true;
+				}
+			}
+		}
+		return any ? copied : null;
+	}
+
+	// Copies the result of pixel (x, y) to the rest of the rectangle (x, y) to (x1, y1)
+	void fill(int x, int y, int x1, int y1) {
+		int from = y * width + x;
+
+		for (int row = y; row < y1; row++) {
+			Arrays.fill(iterations, row * width + x, row * width + x1, iterations[from]);
+			Arrays.fill(smooth, row * width + x, row * width + x1, smooth[from]);
+		}
+	}
+
+	// The results deflated, for sending to another process: each iteration
+	// count as its difference from the pixel before, mostly zero or small,
+	// then the smooth counts
+	byte[] compress() {
+		ByteBuffer raw = ByteBuffer.allocate(iterations.length * (Integer.BYTES + Float.BYTES));
+		int last = 0;
+		for (int n : iterations) {
+			raw.putInt(n - last);
+			last = n;
+		}
+		for (float s : smooth) {
+			raw.putFloat(s);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater, 1 << 16)) {
+			out.write(raw.array());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			deflater.end();
+		}
+		return bytes.toByteArray();
+	}
+
+	// A width x height buffer from the bytes of compress
+	static IterationBuffer decompress(byte[] data, int width, int height) throws IOException {
+		IterationBuffer buffer = new IterationBuffer(width, height);
+		byte[] raw = new byte[width * height * (Integer.BYTES + Float.BYTES)];
+
+		try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+			in.readFully(raw);
+		}
+
+		ByteBuffer values = ByteBuffer.wrap(raw);
+		int last = 0;
+		for (int i = 0; i < buffer.iterations.length; i++) {
+			last += values.getInt();
+			buffer.iterations[i] = last;
+		}
+		for (int i = 0; i < buffer.smooth.length; i++) {
+			buffer.smooth[i] = values.getFloat();
+		}
+		return buffer;
+	}
+
+	// Smooths the colouring
+	static float smooth(int n, double zr, double zi) {
+		return (float) (n + 5 - Math.log(Math.log(Math.sqrt(zr * zr + zi * zi))) / LOG_2);
+	}
+}
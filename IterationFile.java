@@ -0,0 +1,155 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+// Escape-time results of an image too large for the heap, kept in a file
+// which is memory mapped a band of rows at a time. Only the band being
+// written or read is mapped, so the heap needed depends on the band and not
+// on the image. The request is stored at the front, so the file can be
+// coloured again later without rendering it again
+//
+// After a header page, each pixel takes 8 little-endian bytes, its
+// iteration count then its smooth count, row by row
+class IterationFile implements AutoCloseable {
+
+	final static int MAGIC = 0x46524954;
+	final static int VERSION = 1;
+
+	// The pixels start a page into the file
+	final static int HEADER_BYTES = 4096;
+	final static int PIXEL_BYTES = Integer.BYTES + Float.BYTES;
+
+	// What was rendered, coloured as RenderRequest.DEFAULT when read back
+	final RenderRequest request;
+	final int width, height;
+
+	private final FileChannel channel;
+	private final boolean writable;
+
+	private IterationFile(FileChannel channel, RenderRequest request, boolean writable) {
+		this.channel = channel;
+		this.request = request;
+		this.width = request.width;
+		this.height = request.height;
+		this.writable = writable;
+	}
+
+	// A new file for the whole of the request's image, replacing any file
+	// at path. The pixels take no disk space until they are written
+	static IterationFile create(Path path, RenderRequest request) throws IOException {
+		request = request.withRows(0, request.height);
+		if ((long) request.width * PIXEL_BYTES > Integer.MAX_VALUE) {
+			throw new IOException("Image is too wide to map a row, " + request.width + " pixels");
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		request.write(header);
+
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			write(channel, ByteBuffer.wrap(bytes.toByteArray()), 0);
+			// Sets the length, leaving the file sparse
+			write(channel, ByteBuffer.allocate(1), HEADER_BYTES + (long) request.width * request.height * PIXEL_BYTES - 1);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return new IterationFile(channel, request, true);
+	}
+
+	// An existing file, for reading
+	static IterationFile open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+			}
+
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(header.array()));
+			if (in.readInt() != MAGIC) {
+				throw new IOException(path + " is not an iteration file");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException(path + " is version " + version + ", expected " + VERSION);
+			}
+			RenderRequest request = RenderRequest.read(in);
+
+			if (channel.size() < HEADER_BYTES + (long) request.width * request.height * PIXEL_BYTES) {
+				throw new IOException(path + " is truncated");
+			}
+			return new IterationFile(channel, request, false);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer data, long position) throws IOException {
+		while (data.hasRemaining()) {
+			position += channel.write(data, position);
+		}
+	}
+
+	// Rows top to top + rows of the file. The mapping is let go of once it
+	// is no longer referenced
+	private MappedByteBuffer map(int top, int rows) throws IOException {
+		long start = HEADER_BYTES + (long) top * width * PIXEL_BYTES;
+		MappedByteBuffer window = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+				start, (long) rows * width * PIXEL_BYTES);
+		window.order(ByteOrder.LITTLE_ENDIAN);
+
+		return window;
+	}
+
+	// Writes a band rendered into buffer to the rows from top onwards, one
+	// parallel task per row
+	void write(int top, IterationBuffer band) throws IOException {
+		MappedByteBuffer window = map(top, band.height);
+
+		TileRenderer.POOL.submit(() -> IntStream.range(0, band.height).parallel().forEach(y -> {
+			int end = (y + 1) * band.width;
+
+			for (int i = y * band.width; i < end; i++) {
+				window.putInt(i * PIXEL_BYTES, band.iterations[i]);
+				window.putFloat(i * PIXEL_BYTES + Integer.BYTES, band.smooth[i]);
+			}
+		})).join();
+	}
+
+	// Shades rows top to top + rows straight from the file into pixels with
+	// the colouring's palette settings, one parallel task per row
+	void colour(int top, int rows, int[] pixels, RenderRequest colouring) throws IOException {
+		MappedByteBuffer window = map(top, rows);
+		int maxIterations = colouring.colourIterations;
+		Palette p = colouring.palette;
+		boolean smoothing = colouring.smoothColouring;
+		double scale = 0.9 * colouring.colourCycles / maxIterations;
+
+		TileRenderer.POOL.submit(() -> IntStream.range(0, rows).parallel().forEach(y -> {
+			int end = (y + 1) * width;
+
+			for (int i = y * width; i < end; i++) {
+				pixels[i] = GenerateFractals.shade(window.getInt(i * PIXEL_BYTES),
+						window.getFloat(i * PIXEL_BYTES + Integer.BYTES), maxIterations, p, scale, smoothing);
+			}
+		})).join();
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+}
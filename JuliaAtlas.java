@@ -0,0 +1,140 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Julia sets rendered ahead of time at small size for a grid of points c
+// across the Mandelbrot viewport, so that hovering can show one at once.
+// The grid spacing is a power of two, so grids of different viewports line
+// up and a thumbnail is found again after zooming out and back in
+class JuliaAtlas {
+
+	// Width and height of a thumbnail, half the Julia panel's
+	final static int THUMBNAIL_SIZE = 150;
+
+	// At least this many grid points across the larger side of the viewport
+	final static int GRID = 16;
+
+	// Thumbnails kept, roughly 270 of them
+	final static long MEMORY_BYTES = 48L << 20;
+
+	// Renders thumbnails on threads of their own at low priority, leaving the
+	// shared pool to the panels. A core is left free for them where there is one
+	private final ExecutorService workers = Executors.newFixedThreadPool(
+			Math.max(1, Runtime.getRuntime().availableProcessors() - 1), r -> {
+				Thread t = new Thread(r, "Julia atlas");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			});
+
+	// Incremented whenever the viewport changes, dropping queued thumbnails
+	private final AtomicInteger generation = new AtomicInteger();
+
+	// Grid spacing of the current viewport, 2^-level
+	private volatile int level;
+
+	// Least recently used thumbnails first
+	private final LinkedHashMap<String, IterationBuffer> thumbnails = new LinkedHashMap<>(256, 0.75f, true);
+	private long bytes;
+
+	// Queues thumbnails for the grid points of the area, nearest the centre
+	// first, as many as MEMORY_BYTES holds. Each is the thumbnail request with
+	// the grid point as its Julia point
+	void prefetch(double minX, double maxX, double minY, double maxY, RenderRequest thumbnail) {
+		final int gen = generation.incrementAndGet();
+		final int maxIterations = thumbnail.maxIterations;
+
+		// Coarsest power of two giving GRID points across
+		int level = (int) Math.ceil(-Math.log(Math.max(maxX - minX, maxY - minY) / GRID) / Math.log(2));
+		double step = Math.scalb(1.0, -level);
+		this.level = level;
+
+		List<long[]> points = new ArrayList<>();
+		for (long i = (long) Math.ceil(minX / step); i * step <= maxX; i++) {
+			for (long j = (long) Math.ceil(minY / step); j * step <= maxY; j++) {
+				points.add(new long[] { i, j });
+			}
+		}
+		double centreX = (minX + maxX) / 2 / step;
+		double centreY = (minY + maxY) / 2 / step;
+		points.sort(Comparator.comparingDouble(p -> Math.hypot(p[0] - centreX, p[1] - centreY)));
+
+		// Any more and the outer thumbnails would evict those nearer the centre
+		long fits = MEMORY_BYTES / size(thumbnail.width, thumbnail.rows);
+		if (points.size() > fits) {
+			points = points.subList(0, (int) fits);
+		}
+
+		for (long[] p : points) {
+			workers.execute(() -> {
+				String key = key(level, p[0], p[1], maxIterations);
+
+				if (generation.get() == gen && find(key) == null) {
+					IterationBuffer rendered = render(thumbnail.withJulia(p[0] * step, p[1] * step), gen);
+					if (rendered != null) {
+						remember(key, rendered);
+					}
+				}
+			});
+		}
+	}
+
+	// Thumbnail of the grid point nearest c = cr + ci i, or null if it is not ready
+	IterationBuffer get(double cr, double ci, int maxIterations) {
+		int level = this.level;
+		double step = Math.scalb(1.0, -level);
+
+		return find(key(level, Math.round(cr / step), Math.round(ci / step), maxIterations));
+	}
+
+	// Renders the thumbnail on this thread, or returns null if the viewport changes first
+	private IterationBuffer render(RenderRequest request, int gen) {
+		IterationBuffer thumbnail = new IterationBuffer(request.width, request.rows);
+		EscapeKernel kernel = request.kernel();
+
+		for (int y = 0; y < thumbnail.height; y++) {
+			if (generation.get() != gen) {
+				return null;
+			}
+			TileRenderer.computeRow(request, thumbnail, kernel, 0, thumbnail.width, y, 1);
+		}
+		return thumbnail;
+	}
+
+	private static String key(int level, long i, long j, int maxIterations) {
+		return level + "/" + i + "/" + j + "/" + maxIterations;
+	}
+
+	private synchronized IterationBuffer find(String key) {
+		return thumbnails.get(key);
+	}
+
+	// Adds a thumbnail, dropping the least recently used ones once over MEMORY_BYTES
+	private synchronized void remember(String key, IterationBuffer thumbnail) {
+		IterationBuffer replaced = thumbnails.put(key, thumbnail);
+		bytes += size(thumbnail);
+		// A later fill may render a thumbnail an earlier one was still rendering
+		if (replaced != null) {
+			bytes -= size(replaced);
+		}
+
+		Iterator<IterationBuffer> eldest = thumbnails.values().iterator();
+		while (bytes > MEMORY_BYTES && eldest.hasNext()) {
+			bytes -= size(eldest.next());
+			eldest.remove();
+		}
+	}
+
+	private static long size(IterationBuffer buffer) {
+		return size(buffer.width, buffer.height);
+	}
+
+	private static long size(int width, int height) {
+		return (long) width * height * (Integer.BYTES + Float.BYTES);
+	}
+}
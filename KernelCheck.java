@@ -0,0 +1,177 @@
+// Checks that every EscapeKernel gives the results the panels first got
+// with a new Complex for each step of each orbit: the same iteration count
+// for every pixel of the benchmark views, and the same final z wherever the
+// point escaped, since that is what the smooth colouring uses. Exits with
+// status 1 if any pixel differs
+//
+// When the SIMD kernels are available each is also checked, a row at a time,
+// against the scalar kernel it stands in for
+//
+// java [--add-modules jdk.incubator.vector] KernelCheck [iterations, default 100,1000]
+public class KernelCheck {
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		int[] caps = args.length > 0 ? Benchmark.numbers(args[0]) : new int[] { 100, 1000 };
+		long mismatches = 0;
+
+		for (int maxIterations : caps) {
+			for (int v = 0; v < Benchmark.VIEWPORTS.length; v++) {
+				RenderRequest request = Benchmark.VIEWPORTS[v].withIterations(maxIterations);
+				if (request.fractal == RenderRequest.Fractal.JULIA) {
+					request = request.withSize(GenerateJuliaSet.JULIA_WIDTH, GenerateJuliaSet.JULIA_HEIGHT);
+				}
+				long differ = compare(request, request.kernel());
+				System.out.printf("%-9s %6d iterations: %d of %d pixels differ%n", Benchmark.VIEWPORT_NAMES[v],
+						maxIterations, differ, (long) request.width * request.height);
+				mismatches += differ;
+
+				if (EscapeKernel.VECTOR_API) {
+					differ = compareRows(request, scalar(request), vector(request));
+					System.out.printf("%-9s %6d iterations: %d of %d pixels differ between vector and scalar%n",
+							Benchmark.VIEWPORT_NAMES[v], maxIterations, differ, (long) request.width * request.height);
+					mismatches += differ;
+				}
+			}
+		}
+		if (!EscapeKernel.VECTOR_API) {
+			System.out.println("Vector kernels not available, only checking the scalar kernels");
+		}
+		if (mismatches > 0) {
+			System.exit(1);
+		}
+	}
+
+	// Pixels of the request where the kernel and the Complex loop disagree
+	static long compare(RenderRequest request, EscapeKernel kernel) {
+		double[] c = new double[2];
+		double[] z = new double[2];
+		double[] expected = new double[2];
+		long differ = 0;
+
+		for (int y = 0; y < request.height; y++) {
+			for (int x = 0; x < request.width; x++) {
+				request.pointAt(kernel, x, y, c);
+				int expectedIterations = complex(request, new Complex(c[0], c[1]), expected);
+				int n = kernel.iterate(c[0], c[1], request.maxIterations, z);
+
+				if (n != expectedIterations) {
+					differ++;
+				} else if (n < request.maxIterations - 1 && (z[0] != expected[0] || z[1] != expected[1])) {
+					differ++;
+				}
+			}
+		}
+		return differ;
+	}
+
+	// Pixels of the request where two kernels disagree, each iterating
+	// whole rows with iterateRow as tiles do
+	static long compareRows(RenderRequest request, EscapeKernel expected, EscapeKernel kernel) {
+		int width = request.width;
+		double[] c = new double[2];
+		double[] cr = new double[width], ci = new double[width];
+		double[] zr = new double[width], zi = new double[width];
+		double[] expectedZr = new double[width], expectedZi = new double[width];
+		int[] iterations = new int[width], expectedIterations = new int[width];
+		long differ = 0;
+
+		for (int y = 0; y < request.height; y++) {
+			for (int x = 0; x < width; x++) {
+				request.pointAt(kernel, x, y, c);
+				cr[x] = c[0];
+				ci[x] = c[1];
+			}
+			expected.iterateRow(cr, ci, width, request.maxIterations, expectedIterations, expectedZr, expectedZi);
+			kernel.iterateRow(cr, ci, width, request.maxIterations, iterations, zr, zi);
+
+			for (int x = 0; x < width; x++) {
+				int n = iterations[x];
+				if (n != expectedIterations[x]) {
+					differ++;
+				} else if (n < request.maxIterations - 1 && (zr[x] != expectedZr[x] || zi[x] != expectedZi[x])) {
+					differ++;
+				}
+			}
+		}
+		return differ;
+	}
+
+	// The scalar kernel of the request's fractal
+	static EscapeKernel scalar(RenderRequest request) {
+		switch (request.fractal) {
+		case BURNING_SHIP:
+			return new EscapeKernel.BurningShip();
+		case JULIA:
+			return new EscapeKernel.Julia(request.juliaReal, request.juliaImaginary);
+		default:
+			return new EscapeKernel.Mandelbrot();
+		}
+	}
+
+	// The SIMD kernel of the request's fractal, including the Mandelbrot
+	// one which frames do not use
+	static EscapeKernel vector(RenderRequest request) {
+		switch (request.fractal) {
+		case BURNING_SHIP:
+			return EscapeKernel.vectorBurningShip();
+		case JULIA:
+			return EscapeKernel.vectorJulia(request.juliaReal, request.juliaImaginary);
+		default:
+			return EscapeKernel.vectorMandelbrot();
+		}
+	}
+
+	// Iterates the point as the panels first did, each fractal's loop as it
+	// was. Returns the iteration count and leaves the final z in z[0] + z[1]i
+	static int complex(RenderRequest request, Complex c, double[] z) {
+		int maxIterations = request.maxIterations;
+		int iterations = 0;
+
+		switch (request.fractal) {
+		case BURNING_SHIP: {
+			double zreal = 0;
+			double zimaginary = 0;
+
+			while (iterations < maxIterations && zreal * zreal + zimaginary * zimaginary < 4) {
+				double zrealUpdated = zreal * zreal - zimaginary * zimaginary + c.getReal();
+				double zimaginaryUpdated = 2 * Math.abs(zreal) * Math.abs(zimaginary) + c.getImaginary();
+
+				zreal = zrealUpdated;
+				zimaginary = zimaginaryUpdated;
+				iterations++;
+			}
+			z[0] = zreal;
+			z[1] = zimaginary;
+			return iterations;
+		}
+		case JULIA: {
+			Complex k = new Complex(request.juliaReal, request.juliaImaginary);
+			boolean escaped = false;
+
+			for (iterations = 0; iterations < maxIterations; iterations++) {
+				c = c.square().add(k);
+				if (c.modulusSquared() > 4) {
+					escaped = true;
+					break;
+				}
+			}
+			z[0] = c.getReal();
+			z[1] = c.getImaginary();
+			return escaped ? iterations : maxIterations - 1;
+		}
+		default: {
+			Complex orbit = c;
+
+			while (iterations < maxIterations && orbit.modulusSquared() <= 4) {
+				orbit = orbit.square().add(c);
+				iterations++;
+			}
+			z[0] = orbit.getReal();
+			z[1] = orbit.getImaginary();
+			return iterations;
+		}
+		}
+	}
+}
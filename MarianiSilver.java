@@ -0,0 +1,124 @@
+// Mariani-Silver subdivision of one tile. Only the border of a rectangle is
+// iterated; if every border pixel has the same iteration count the inside is
+// filled without computing it, otherwise the rectangle is split in two and
+// each half is tried again. Relies on the set and its escape bands having no
+// holes, which holds for the Mandelbrot set and connected Julia sets, so it
+// is only used for those (see RenderRequest.tracesBoundaries)
+class MarianiSilver {
+
+	// Rectangles this narrow are computed pixel by pixel
+	final static int MIN_SIZE = 4;
+
+	private final RenderRequest request;
+	private final EscapeKernel kernel;
+	private final IterationBuffer buffer;
+
+	// Tile being subdivided
+	private final int tileX, tileY, tileWidth;
+
+	// Whether each pixel of the tile has been computed yet
+	private final boolean[] done;
+
+	private final double[] z = new double[2];
+
+	// Pixels actually iterated, and pixels filled in from their border
+	private long evaluated, filled;
+	private long iterationSum, skippedSum;
+
+	private MarianiSilver(RenderRequest request, EscapeKernel kernel, IterationBuffer buffer, int x0, int y0,
+			int x1, int y1, int known) {
+		this.request = request;
+		this.kernel = kernel;
+		this.buffer = buffer;
+		this.tileX = x0;
+		this.tileY = y0;
+		this.tileWidth = x1 - x0;
+
+		done = new boolean[(x1 - x0) * (y1 - y0)];
+
+		// Samples of an earlier progressive pass are already in the buffer
+		if (known != 0) {
+			for (int y = y0; y < y1; y++) {
+				for (int x = x0; x < x1; x++) {
+					done[(y - y0) * tileWidth + (x - x0)] = x % known == 0 && y % known == 0;
+				}
+			}
+		}
+	}
+
+	// Iterates the tile (x0, y0) to (x1, y1) of the buffer by subdivision.
+	// Every known-th pixel of every known-th row is already in the buffer,
+	// unless known is 0
+	static void computeTile(RenderRequest request, EscapeKernel kernel, IterationBuffer buffer, int x0, int y0,
+			int x1, int y1, int known) {
+		MarianiSilver tile = new MarianiSilver(request, kernel, buffer, x0, y0, x1, y1, known);
+		tile.subdivide(x0, y0, x1, y1);
+
+		kernel.stats.iterations.add(tile.iterationSum);
+		kernel.stats.skippedIterations.add(tile.skippedSum);
+		kernel.stats.evaluatedPixels.add(tile.evaluated);
+		kernel.stats.filledPixels.add(tile.filled);
+	}
+
+	// Iteration count of a pixel, computing it the first time
+	private int pixel(int x, int y) {
+		int i = (y - tileY) * tileWidth + (x - tileX);
+
+		if (!done[i]) {
+			int n = request.iteratePixel(kernel, x, y, z);
+			buffer.set(x, y, n, z[0], z[1]);
+			done[i] = true;
+
+			evaluated++;
+			iterationSum += n;
+		}
+		return buffer.iterations[y * buffer.width + x];
+	}
+
+	// Subdivides the rectangle (x0, y0) to (x1, y1), upper bounds exclusive
+	private void subdivide(int x0, int y0, int x1, int y1) {
+		if (x1 - x0 <= MIN_SIZE || y1 - y0 <= MIN_SIZE) {
+			for (int y = y0; y < y1; y++) {
+				for (int x = x0; x < x1; x++) {
+					pixel(x, y);
+				}
+			}
+			return;
+		}
+
+		// Iterate the whole border, the halves reuse it if it isn't uniform
+		int first = pixel(x0, y0);
+		boolean uniform = true;
+
+		for (int x = x0; x < x1; x++) {
+			uniform &= pixel(x, y0) == first;
+			uniform &= pixel(x, y1 - 1) == first;
+		}
+		for (int y = y0 + 1; y < y1 - 1; y++) {
+			uniform &= pixel(x0, y) == first;
+			uniform &= pixel(x1 - 1, y) == first;
+		}
+
+		if (uniform) {
+			// Fill the inside with the corner's result
+			for (int y = y0 + 1; y < y1 - 1; y++) {
+				for (int x = x0 + 1; x < x1 - 1; x++) {
+					buffer.copy(x0, y0, x, y);
+					done[(y - tileY) * tileWidth + (x - tileX)] = true;
+				}
+			}
+			long inside = (long) (x1 - x0 - 2) * (y1 - y0 - 2);
+			filled += inside;
+			iterationSum += inside * first;
+			skippedSum += inside * first;
+		} else if (x1 - x0 >= y1 - y0) {
+			int middle = (x0 + x1) >>> 1;
+			subdivide(x0, y0, middle, y1);
+			subdivide(middle, y0, x1, y1);
+		} else {
+			int middle = (y0 + y1) >>> 1;
+			subdivide(x0, y0, x1, middle);
+			subdivide(x0, middle, x1, y1);
+		}
+	}
+}
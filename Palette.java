@@ -0,0 +1,67 @@
+import java.awt.Color;
+
+// Colours precomputed into a lookup table, so shading a pixel is one array
+// read instead of logarithms and an HSB conversion
+class Palette {
+
+	// Number of entries in the lookup table, a power of two
+	final static int SIZE = 4096;
+
+	final static Palette RAINBOW = hsb("Rainbow", 0.9f, 0.9f);
+	final static Palette FIRE = gradient("Fire", Color.BLACK, Color.RED, Color.YELLOW, Color.WHITE);
+	final static Palette OCEAN = gradient("Ocean", new Color(0, 7, 100), new Color(32, 107, 203), Color.WHITE,
+			new Color(255, 170, 0));
+	final static Palette GREYSCALE = gradient("Greyscale", Color.BLACK, Color.WHITE);
+
+	// Palettes offered in the Colour menu
+	final static Palette[] PALETTES = { RAINBOW, FIRE, OCEAN, GREYSCALE };
+
+	final String name;
+	private final int[] lut;
+
+	private Palette(String name, int[] lut) {
+		this.name = name;
+		this.lut = lut;
+	}
+
+	// Colour at position t, which wraps around every 1.0
+	int colour(double t) {
+		return lut[(int) ((t - Math.floor(t)) * SIZE) & (SIZE - 1)];
+	}
+
+	// Every hue at a fixed saturation and brightness
+	static Palette hsb(String name, float saturation, float brightness) {
+		int[] lut = new int[SIZE];
+
+		for (int i = 0; i < SIZE; i++) {
+			lut[i] = Color.HSBtoRGB((float) i / SIZE, saturation, brightness);
+		}
+		return new Palette(name, lut);
+	}
+
+	// Evenly spaced colour stops blended linearly, wrapping from the last back
+	// to the first so that colour cycling has no seam
+	static Palette gradient(String name, Color... stops) {
+		int[] lut = new int[SIZE];
+
+		for (int i = 0; i < SIZE; i++) {
+			double position = (double) i * stops.length / SIZE;
+			int stop = (int) position;
+			double f = position - stop;
+
+			Color from = stops[stop];
+			Color to = stops[(stop + 1) % stops.length];
+
+			int r = (int) Math.round(from.getRed() + f * (to.getRed() - from.getRed()));
+			int g = (int) Math.round(from.getGreen() + f * (to.getGreen() - from.getGreen()));
+			int b = (int) Math.round(from.getBlue() + f * (to.getBlue() - from.getBlue()));
+
+			lut[i] = 0xFF000000 | r << 16 | g << 8 | b;
+		}
+		return new Palette(name, lut);
+	}
+
+	public String toString() {
+		return name;
+	}
+}
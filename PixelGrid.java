@@ -0,0 +1,81 @@
+// Where in the plane the pixels of a frame were sampled, so that the next
+// frame can take the samples which fall on its own pixel grid rather than
+// iterating them again: everything still on screen after a pan, every other
+// pixel after zooming in by two, the old frame after zooming out
+class PixelGrid {
+
+	// A sample is reused when it is this close to a pixel of the new grid,
+	// in pixels. Covers the rounding of the bounds, nothing more
+	final static double TOLERANCE = 1e-6;
+
+	final int width, height;
+
+	// Corner and pixel size, or the deep zoom the pixels are offsets from
+	final double minX, minY, pixelX, pixelY;
+	final DeepZoom deepZoom;
+
+	// Anything else deciding the samples, such as the kernel and iteration cap
+	final String samples;
+
+	PixelGrid(int width, int height, double minX, double maxX, double minY, double maxY, DeepZoom deepZoom,
+			String samples) {
+		this.width = width;
+		this.height = height;
+		this.minX = minX;
+		this.minY = minY;
+		this.deepZoom = deepZoom;
+		this.samples = samples;
+
+		if (deepZoom != null) {
+			pixelX = deepZoom.spanX / width;
+			pixelY = deepZoom.spanY / height;
+		} else {
+			pixelX = (maxX - minX) / width;
+			pixelY = (maxY - minY) / height;
+		}
+	}
+
+	// Whether any samples of previous could be on this grid
+	boolean overlaps(PixelGrid previous) {
+		return previous != null && previous.width == width && previous.height == height
+				&& previous.samples.equals(samples) && (previous.deepZoom == null) == (deepZoom == null);
+	}
+
+	// For each column of this grid, the column of previous sampled at the
+	// same place, or -1 if there is none
+	int[] columnsFrom(PixelGrid previous) {
+		double offset = deepZoom != null
+				? deepZoom.centreX.subtract(previous.deepZoom.centreX).doubleValue() / previous.pixelX
+				: (minX - previous.minX) / previous.pixelX;
+
+		return map(offset, pixelX / previous.pixelX, width, deepZoom != null);
+	}
+
+	int[] rowsFrom(PixelGrid previous) {
+		double offset = deepZoom != null
+				? deepZoom.centreY.subtract(previous.deepZoom.centreY).doubleValue() / previous.pixelY
+				: (minY - previous.minY) / previous.pixelY;
+
+		return map(offset, pixelY / previous.pixelY, height, deepZoom != null);
+	}
+
+	// Old pixel u = offset + x scale for each new pixel x along one axis. A
+	// deep zoom places pixels relative to the centre instead of the corner
+	private static int[] map(double offset, double scale, int pixels, boolean centred) {
+		int[] from = new int[pixels];
+
+		// Only the same scale, or an integer ratio either way, lines up
+		double ratio = scale >= 1 ? scale : 1 / scale;
+		boolean aligned = Math.abs(ratio - Math.rint(ratio)) < TOLERANCE;
+
+		for (int x = 0; x < pixels; x++) {
+			double u = centred ? offset + (x - pixels / 2.0) * scale + pixels / 2.0 : offset + x * scale;
+			long nearest = Math.round(u);
+
+			from[x] = aligned && Math.abs(u - nearest) < TOLERANCE && nearest >= 0 && nearest < pixels
+					? (int) nearest
+					: -1;
+		}
+		return from;
+	}
+}
@@ -0,0 +1,117 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Writes a PNG one row at a time, so an image far larger than the heap can be
+// encoded without ever holding it. Rows are deflated as they arrive and the
+// compressed data is cut into IDAT chunks of at most CHUNK_SIZE bytes
+class PngWriter implements AutoCloseable {
+
+	private final static byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+	// Largest IDAT chunk written
+	final static int CHUNK_SIZE = 1 << 16;
+
+	// PNG filter type 1: each byte stored as its difference from the byte of
+	// the pixel to its left, which suits smooth colour bands
+	private final static int FILTER_SUB = 1;
+
+	private final DataOutputStream out;
+	private final int width, height;
+
+	// Compressed image data waiting to be written as a chunk
+	private final ByteArrayOutputStream idat = new ByteArrayOutputStream(CHUNK_SIZE);
+	private final DeflaterOutputStream deflater;
+	private final Deflater deflate = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+	// Filtered row being written, reused for every row
+	private final byte[] row;
+	private int rowsWritten;
+
+	// Writes the header of a width x height 8-bit RGB image
+	PngWriter(OutputStream out, int width, int height) throws IOException {
+		this.out = new DataOutputStream(out);
+		this.width = width;
+		this.height = height;
+
+		row = new byte[1 + 3 * width];
+		deflater = new DeflaterOutputStream(idat, deflate, CHUNK_SIZE);
+
+		this.out.write(SIGNATURE);
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream ihdr = new DataOutputStream(header);
+		ihdr.writeInt(width);
+		ihdr.writeInt(height);
+		ihdr.writeByte(8); // bit depth
+		ihdr.writeByte(2); // colour type, RGB
+		ihdr.writeByte(0); // compression, deflate
+		ihdr.writeByte(0); // filter method
+		ihdr.writeByte(0); // no interlace
+		chunk("IHDR", header.toByteArray(), header.size());
+	}
+
+	// Appends the next row of the image from width RGB pixels starting at offset
+	void writeRow(int[] pixels, int offset) throws IOException {
+		if (rowsWritten == height) {
+			throw new IllegalStateException("All " + height + " rows already written");
+		}
+		row[0] = FILTER_SUB;
+
+		int left = 0;
+		for (int x = 0, i = 1; x < width; x++, i += 3) {
+			int rgb = pixels[offset + x];
+
+			row[i] = (byte) ((rgb >> 16) - (left >> 16));
+			row[i + 1] = (byte) ((rgb >> 8) - (left >> 8));
+			row[i + 2] = (byte) (rgb - left);
+			left = rgb;
+		}
+		deflater.write(row);
+		rowsWritten++;
+
+		if (idat.size() >= CHUNK_SIZE) {
+			flushChunk();
+		}
+	}
+
+	// Writes the remaining compressed data and the end of the image. Does not
+	// close the underlying stream
+	public void close() throws IOException {
+		if (rowsWritten != height) {
+			throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows written");
+		}
+		deflater.finish();
+		deflate.end();
+		flushChunk();
+
+		chunk("IEND", new byte[0], 0);
+		out.flush();
+	}
+
+	// Writes the compressed data gathered so far as one IDAT chunk
+	private void flushChunk() throws IOException {
+		if (idat.size() > 0) {
+			chunk("IDAT", idat.toByteArray(), idat.size());
+			idat.reset();
+		}
+	}
+
+	// Length, type, data and the CRC of the type and data
+	private void chunk(String type, byte[] data, int length) throws IOException {
+		byte[] name = type.getBytes("US-ASCII");
+
+		CRC32 crc = new CRC32();
+		crc.update(name);
+		crc.update(data, 0, length);
+
+		out.writeInt(length);
+		out.write(name);
+		out.write(data, 0, length);
+		out.writeInt((int) crc.getValue());
+	}
+}
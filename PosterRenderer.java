@@ -0,0 +1,199 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+
+// Renders images larger than the heap into a memory mapped IterationFile,
+// then colours that file into a PNG, at full size or shrunk, as often as
+// wanted without rendering it again. Only a band of rows is ever on the
+// heap or mapped, so a 100000 x 100000 render runs in a small fixed heap;
+// the file takes 8 bytes a pixel
+//
+// java PosterRenderer render [options] poster.iter
+//   --size WIDTHxHEIGHT         image size, default 900x700
+//   --view MINX,MAXX,MINY,MAXY  area of the plane, default the whole set
+//   --fractal NAME              mandelbrot, burningship or julia
+//   --julia RE,IM               point of the Julia set, default -0.7,0.27015
+//   --iterations N              iterations before a point is taken to be in the set
+//   --tracing                   render by boundary tracing, not the Burning Ship
+//
+// java PosterRenderer colour [options] poster.iter output.png
+//   --palette NAME              Rainbow, Fire, Ocean or Greyscale
+//   --cycles N                  times the palette repeats
+//   --shrink N                  average each N x N block of pixels into one
+public class PosterRenderer {
+
+	// Pixels rendered or coloured per band, which bounds the heap used
+	final static int BAND_PIXELS = 1 << 20;
+
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+
+		try {
+			if (args.length > 0 && args[0].equals("render")) {
+				render(args);
+				return;
+			} else if (args.length > 0 && args[0].equals("colour")) {
+				colour(args);
+				return;
+			}
+			throw new IllegalArgumentException("Expected render or colour");
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: java PosterRenderer render " + BatchRenderer.Options.USAGE + " [--tracing]"
+					+ " poster.iter");
+			System.err.println("       java PosterRenderer colour [--palette name] [--cycles N] [--shrink N]"
+					+ " poster.iter output.png");
+			System.exit(2);
+		}
+	}
+
+	private static void render(String[] args) throws IOException {
+		BatchRenderer.Options options = new BatchRenderer.Options(false, true);
+		String output = null;
+
+		for (int i = 1; i < args.length; i++) {
+			int last = options.parse(args, i);
+			if (last >= 0) {
+				i = last;
+			} else if (args[i].startsWith("--") || output != null) {
+				throw new IllegalArgumentException("Unexpected argument " + args[i]);
+			} else {
+				output = args[i];
+			}
+		}
+		if (output == null) {
+			throw new IllegalArgumentException("No output file given");
+		}
+		RenderRequest request = options.request();
+		int width = request.width;
+		int height = request.height;
+
+		// Shared by every band, so the reference orbit of a deep zoom is
+		// computed once and the stats cover the whole image
+		EscapeKernel kernel = request.kernel();
+		int bandHeight = Math.max(1, Math.min(height, BAND_PIXELS / width));
+
+		long start = System.nanoTime();
+		try (IterationFile file = IterationFile.create(Paths.get(output), request)) {
+			// The next band renders while the last one is written out
+			CompletableFuture<IterationBuffer> next = band(request, kernel, 0, bandHeight);
+
+			for (int top = 0; top < height; top += bandHeight) {
+				IterationBuffer buffer = next.join();
+				if (top + bandHeight < height) {
+					next = band(request, kernel, top + bandHeight, bandHeight);
+				}
+				file.write(top, buffer);
+				System.err.printf("\r%d%%", (int) (100L * (top + buffer.height) / height));
+			}
+			System.err.println();
+		}
+		System.err.printf("Wrote %s, %dx%d in %.1f s. %s%n", output, width, height,
+				(System.nanoTime() - start) / 1e9, kernel.stats);
+	}
+
+	// Starts rendering rows top to top + bandHeight of the image, the last
+	// band being shorter
+	private static CompletableFuture<IterationBuffer> band(RenderRequest request, EscapeKernel kernel, int top,
+			int bandHeight) {
+		return RenderService.SHARED.iterate(request.withRows(top, Math.min(bandHeight, request.height - top)), kernel);
+	}
+
+	private static void colour(String[] args) throws IOException {
+		Palette palette = RenderRequest.DEFAULT.palette;
+		int cycles = RenderRequest.DEFAULT.colourCycles;
+		int shrink = 1;
+		String input = null;
+		String output = null;
+
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+			case "--palette":
+				palette = BatchRenderer.palette(BatchRenderer.Options.value(args, i++));
+				break;
+			case "--cycles":
+				cycles = Integer.parseInt(BatchRenderer.Options.value(args, i++));
+				break;
+			case "--shrink":
+				shrink = Integer.parseInt(BatchRenderer.Options.value(args, i++));
+				if (shrink < 1) {
+					throw new IllegalArgumentException("Shrink must be at least 1");
+				}
+				break;
+			default:
+				if (args[i].startsWith("--") || output != null) {
+					throw new IllegalArgumentException("Unexpected argument " + args[i]);
+				}
+				if (input == null) {
+					input = args[i];
+				} else {
+					output = args[i];
+				}
+			}
+		}
+		if (output == null) {
+			throw new IllegalArgumentException("Expected an iteration file and an output file");
+		}
+
+		long start = System.nanoTime();
+		try (IterationFile file = IterationFile.open(Paths.get(input));
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 1 << 16)) {
+			RenderRequest colouring = file.request.withColouring(file.request.maxIterations, palette, cycles, true);
+			colour(file, colouring, shrink, out);
+		}
+		System.err.printf("Wrote %s in %.1f s%n", output, (System.nanoTime() - start) / 1e9);
+	}
+
+	// Colours the file into out as a PNG, averaging each shrink x shrink
+	// block into one pixel. Bands are a whole number of blocks high
+	static void colour(IterationFile file, RenderRequest colouring, int shrink, OutputStream out) throws IOException {
+		int width = (file.width + shrink - 1) / shrink;
+		int height = (file.height + shrink - 1) / shrink;
+		int bandHeight = Math.max(1, Math.min(file.height, BAND_PIXELS / file.width / shrink)) * shrink;
+		int[] pixels = new int[file.width * bandHeight];
+		int[] row = new int[width];
+
+		try (PngWriter png = new PngWriter(out, width, height)) {
+			for (int top = 0; top < file.height; top += bandHeight) {
+				int rows = Math.min(bandHeight, file.height - top);
+				file.colour(top, rows, pixels, colouring);
+
+				if (shrink == 1) {
+					for (int y = 0; y < rows; y++) {
+						png.writeRow(pixels, y * file.width);
+					}
+				} else {
+					for (int y = 0; y < rows; y += shrink) {
+						shrinkRow(pixels, file.width, y, Math.min(y + shrink, rows), shrink, row);
+						png.writeRow(row, 0);
+					}
+				}
+				System.err.printf("\r%d%%", (int) (100L * (top + rows) / file.height));
+			}
+			System.err.println();
+		}
+	}
+
+	// Averages the colours of rows y0 to y1 of pixels, shrink columns at a
+	// time, into row
+	private static void shrinkRow(int[] pixels, int width, int y0, int y1, int shrink, int[] row) {
+		for (int x = 0; x < row.length; x++) {
+			int x0 = x * shrink;
+			int x1 = Math.min(x0 + shrink, width);
+			long red = 0, green = 0, blue = 0;
+
+			for (int y = y0; y < y1; y++) {
+				for (int i = y * width + x0; i < y * width + x1; i++) {
+					red += (pixels[i] >> 16) & 0xFF;
+					green += (pixels[i] >> 8) & 0xFF;
+					blue += pixels[i] & 0xFF;
+				}
+			}
+			int count = (y1 - y0) * (x1 - x0);
+			row[x] = (int) (red / count) << 16 | (int) (green / count) << 8 | (int) (blue / count);
+		}
+	}
+}
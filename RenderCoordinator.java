@@ -0,0 +1,330 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Renders a fractal to a PNG file like BatchRenderer, but hands the work
+// out to RenderWorker processes over TCP. The image is split into strips of
+// rows, each sent to whichever connection is free next, and the workers
+// send back iteration counts which are coloured and written here, in order.
+// Only a window of strips beyond the last one written is handed out, so
+// memory stays bounded whatever the image size.
+//
+// A strip whose connection fails or times out goes back to the front of the
+// queue for the other connections, and the connection is made again after
+// a pause. The render fails if a strip fails ATTEMPTS times or every
+// connection is lost for good
+//
+// java RenderCoordinator --workers HOST:PORT,... [options] output.png
+//   --workers LIST              workers to use, each as host:port
+//   --connections N             connections to each worker, default 2, so
+//                               one strip renders while another travels
+//   --timeout SECONDS           longest wait for a strip, default 300
+//   and the options of BatchRenderer apart from --tracing
+public class RenderCoordinator {
+
+	// Rows in each strip unless the image is very wide
+	final static int STRIP_ROWS = TileRenderer.TILE_SIZE;
+
+	// Strips handed out beyond the last one written, per connection
+	final static int WINDOW_PER_CONNECTION = 4;
+
+	// Tries at each strip before giving up on the render
+	final static int ATTEMPTS = 3;
+
+	// Times in a row a lost connection is made again, the first after
+	// RECONNECT_MILLIS and each after that waiting twice as long
+	final static int RECONNECTS = 3;
+	final static long RECONNECT_MILLIS = 500;
+
+	private final RenderRequest request;
+	private final int stripRows, strips;
+	private final int window;
+
+	// Each strip's iteration counts, until written
+	private final List<CompletableFuture<IterationBuffer>> results = new ArrayList<>();
+	// Strips to hand out again, lowest first
+	private final PriorityQueue<Integer> retries = new PriorityQueue<>();
+	private final int[] attempts;
+	// Next strip never handed out, strips written and finished, and connections still open
+	private int next, written, finished, open;
+	private Throwable failure;
+
+	// Strips rendered by each worker, and strips handed out again
+	private final Map<String, Integer> rendered = new TreeMap<>();
+	private int retried;
+
+	RenderCoordinator(RenderRequest request, int window) {
+		this.request = request;
+		this.stripRows = Math.max(1, Math.min(STRIP_ROWS, BatchRenderer.BAND_PIXELS / request.width));
+		this.strips = (request.height + stripRows - 1) / stripRows;
+		this.window = window;
+		this.attempts = new int[strips];
+
+		for (int i = 0; i < strips; i++) {
+			results.add(new CompletableFuture<>());
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+
+		BatchRenderer.Options options = new BatchRenderer.Options(true, false);
+		RenderRequest request;
+		List<InetSocketAddress> workers = new ArrayList<>();
+		int connections = 2;
+		int timeout = 300;
+		String output = null;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				int last = options.parse(args, i);
+				if (last >= 0) {
+					i = last;
+					continue;
+				}
+				switch (args[i]) {
+				case "--workers":
+					for (String worker : BatchRenderer.Options.value(args, i++).split(",")) {
+						int colon = worker.lastIndexOf(':');
+						if (colon < 0) {
+							throw new IllegalArgumentException("Expected host:port, not " + worker);
+						}
+						workers.add(InetSocketAddress.createUnresolved(worker.substring(0, colon).trim(),
+								Integer.parseInt(worker.substring(colon + 1).trim())));
+					}
+					break;
+				case "--connections":
+					connections = Integer.parseInt(BatchRenderer.Options.value(args, i++));
+					break;
+				case "--timeout":
+					timeout = Integer.parseInt(BatchRenderer.Options.value(args, i++));
+					break;
+				default:
+					if (args[i].startsWith("--") || output != null) {
+						throw new IllegalArgumentException("Unexpected argument " + args[i]);
+					}
+					output = args[i];
+				}
+			}
+			if (output == null) {
+				throw new IllegalArgumentException("No output file given");
+			}
+			if (workers.isEmpty()) {
+				throw new IllegalArgumentException("No workers given");
+			}
+			if (connections < 1 || timeout < 1) {
+				throw new IllegalArgumentException("Connections and timeout must be at least 1");
+			}
+			request = options.request();
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: java RenderCoordinator --workers host:port,... [--connections N]"
+					+ " [--timeout seconds] " + BatchRenderer.Options.USAGE + " [--palette name] [--cycles N]"
+					+ " output.png");
+			System.exit(2);
+			return;
+		}
+
+		RenderCoordinator coordinator = new RenderCoordinator(request,
+				WINDOW_PER_CONNECTION * connections * workers.size());
+
+		long start = System.nanoTime();
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 1 << 16)) {
+			coordinator.render(workers, connections, timeout * 1000, out);
+		} catch (CompletionException e) {
+			System.err.println();
+			System.err.println("Render failed: " + e.getCause().getMessage());
+			System.exit(1);
+		}
+		System.err.printf("Wrote %s, %dx%d in %.1f s. %s%n", output, request.width, request.height,
+				(System.nanoTime() - start) / 1e9, coordinator.summary());
+	}
+
+	// Opens the connections and writes the strips to out as a PNG as they
+	// arrive. Throws CompletionException if the render failed
+	void render(List<InetSocketAddress> workers, int connections, int timeoutMillis, OutputStream out)
+			throws IOException {
+		synchronized (this) {
+			open = workers.size() * connections;
+		}
+		for (InetSocketAddress worker : workers) {
+			for (int i = 0; i < connections; i++) {
+				Thread thread = new Thread(() -> connect(worker, timeoutMillis), "worker " + worker);
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+
+		int[] pixels = new int[request.width * stripRows];
+		try (PngWriter png = new PngWriter(out, request.width, request.height)) {
+			for (int strip = 0; strip < strips; strip++) {
+				IterationBuffer buffer = results.get(strip).join();
+				results.set(strip, null);
+				GenerateFractals.colourPixels(buffer, pixels, request);
+
+				for (int y = 0; y < buffer.height; y++) {
+					png.writeRow(pixels, y * request.width);
+				}
+				synchronized (this) {
+					written++;
+					notifyAll();
+				}
+				System.err.printf("\r%d%%", (int) (100L * (strip + 1) / strips));
+			}
+			System.err.println();
+		}
+	}
+
+	// Rows of the strip
+	private RenderRequest strip(int strip) {
+		int top = strip * stripRows;
+		return request.withRows(top, Math.min(stripRows, request.height - top));
+	}
+
+	// Renders strips on connections to a worker until there are none left.
+	// A connection which fails is made again, up to RECONNECTS times in a
+	// row and waiting longer each time, so a worker which restarts or is
+	// slow to start is not lost
+	private void connect(InetSocketAddress address, int timeoutMillis) {
+		String name = address.getHostString() + ":" + address.getPort();
+
+		try {
+			// Failed connections in a row
+			int failures = 0;
+
+			while (true) {
+				int served = session(address, timeoutMillis, name);
+				if (served < 0 || done()) {
+					return;
+				}
+				// A connection which rendered strips starts a fresh run
+				failures = served > 0 ? 1 : failures + 1;
+				if (failures > RECONNECTS) {
+					return;
+				}
+				Thread.sleep(RECONNECT_MILLIS << (failures - 1));
+				System.err.println("Reconnecting to " + name);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			close();
+		}
+	}
+
+	// One connection to the worker, rendering strips until there are none
+	// left. Returns -1 then, or the number of strips rendered before the
+	// connection failed, the strip it was rendering being handed out again
+	private int session(InetSocketAddress address, int timeoutMillis, String name) throws InterruptedException {
+		int strip = -1;
+		int served = 0;
+
+		try (Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), timeoutMillis);
+			socket.setSoTimeout(timeoutMillis);
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			RenderWorker.handshake(out, in);
+
+			while ((strip = take()) >= 0) {
+				RenderRequest request = strip(strip);
+				request.write(out);
+				out.flush();
+
+				IterationBuffer buffer = RenderWorker.readStrip(in, request);
+				finish(strip, buffer, name);
+				strip = -1;
+				served++;
+			}
+			return -1;
+		} catch (IOException e) {
+			System.err.println();
+			System.err.println("Lost worker " + name + ": " + e);
+			if (strip >= 0) {
+				retry(strip, name);
+			}
+			return served;
+		}
+	}
+
+	// Whether the render has finished or failed
+	private synchronized boolean done() {
+		return failure != null || finished >= strips;
+	}
+
+	// The next strip to render, or -1 once there are none left. Waits while
+	// the window is full
+	private synchronized int take() throws InterruptedException {
+		while (failure == null && finished < strips) {
+			if (!retries.isEmpty()) {
+				return retries.poll();
+			}
+			if (next < strips && next < written + window) {
+				return next++;
+			}
+			wait();
+		}
+		return -1;
+	}
+
+	private synchronized void finish(int strip, IterationBuffer buffer, String worker) {
+		rendered.merge(worker, 1, Integer::sum);
+		finished++;
+		results.get(strip).complete(buffer);
+		notifyAll();
+	}
+
+	// Hands a strip out again after its connection failed
+	private synchronized void retry(int strip, String worker) {
+		if (++attempts[strip] >= ATTEMPTS) {
+			fail(new IOException("Strip " + strip + " failed " + ATTEMPTS + " times, last on " + worker));
+			return;
+		}
+		retried++;
+		retries.add(strip);
+		notifyAll();
+	}
+
+	// One connection fewer. With none left the render can't finish
+	private synchronized void close() {
+		if (--open == 0 && finished < strips) {
+			fail(new IOException("No workers left"));
+		}
+	}
+
+	private synchronized void fail(Throwable e) {
+		if (failure == null) {
+			failure = e;
+		}
+		for (CompletableFuture<IterationBuffer> result : results) {
+			if (result != null) {
+				result.completeExceptionally(e);
+			}
+		}
+		notifyAll();
+	}
+
+	// Strips rendered by the worker at host:port
+	synchronized int rendered(String worker) {
+		return rendered.getOrDefault(worker, 0);
+	}
+
+	// Strips per worker and retries
+	synchronized String summary() {
+		return strips + " strips, " + rendered + (retried > 0 ? ", " + retried + " retried" : "");
+	}
+}
@@ -0,0 +1,279 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.Timespan;
+
+// Timings of the frames rendered and coloured by one source, such as a
+// panel or the render service. Each frame is committed as a JDK Flight
+// Recorder event (record with -XX:StartFlightRecording) and the last one is
+// kept for JMX and for the panels' overlay
+class RenderMetrics implements RenderMetricsMBean {
+
+	// Name of the source, shown in events and in the MBean's name
+	final String source;
+
+	// Last frame rendered, replaced whole so that readers see one frame
+	private volatile Frame last = new Frame("none", 0, 0, 0, 0, 0, 0, 0, 0);
+	private volatile long lastColourNanos;
+
+	private final AtomicLong framesRendered = new AtomicLong();
+	private final AtomicLong framesColoured = new AtomicLong();
+	private final AtomicLong renderNanos = new AtomicLong();
+	private final AtomicLong colourNanos = new AtomicLong();
+
+	private RenderMetrics(String source) {
+		this.source = source;
+	}
+
+	// Metrics for the source, registered with the platform MBean server.
+	// Still usable if registration fails, for instance under a second
+	// source of the same name
+	static RenderMetrics register(String source) {
+		RenderMetrics metrics = new RenderMetrics(source);
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+					new ObjectName("fractal:type=RenderMetrics,name=" + ObjectName.quote(source)));
+		} catch (JMException e) {
+			System.err.println("Render metrics for " + source + " not registered: " + e.getMessage());
+		}
+		return metrics;
+	}
+
+	// Records a frame of the request iterated into the buffer, which waited
+	// queuedNanos to start and took renderNanos. stats are the counters of
+	// the kernel which rendered it, kind says how it was rendered
+	void frame(String kind, RenderRequest request, IterationBuffer buffer, FrameStats stats, long queuedNanos,
+			long renderNanos) {
+		int interior = request.interiorIterations();
+		long inside = 0;
+		long total = 0;
+
+		for (int n : buffer.iterations) {
+			total += n;
+			if (n >= interior) {
+				inside++;
+			}
+		}
+		int pixels = buffer.iterations.length;
+
+		Frame frame = new Frame(kind, renderNanos, queuedNanos, pixels, stats.iterations.sum(),
+				(double) total / pixels, (double) inside / pixels, stats.tiles.sum(), stats.threads.size());
+		last = frame;
+		framesRendered.incrementAndGet();
+		this.renderNanos.addAndGet(renderNanos);
+
+		FrameEvent event = new FrameEvent();
+		if (event.shouldCommit()) {
+			event.source = source;
+			event.kind = kind;
+			event.fractal = request.fractal.toString();
+			event.width = buffer.width;
+			event.height = buffer.height;
+			event.maxIterations = request.maxIterations;
+			event.renderTime = renderNanos;
+			event.queueWait = queuedNanos;
+			event.pixelsPerSecond = frame.pixelsPerSecond();
+			event.iterations = frame.iterations;
+			event.meanIterations = frame.meanIterations;
+			event.interiorFraction = frame.interiorFraction;
+			event.tiles = frame.tiles;
+			event.threads = frame.threads;
+			event.commit();
+		}
+	}
+
+	// Records colouring pixels, which took nanos
+	void colour(int pixels, long nanos) {
+		lastColourNanos = nanos;
+		framesColoured.incrementAndGet();
+		colourNanos.addAndGet(nanos);
+
+		ColourEvent event = new ColourEvent();
+		if (event.shouldCommit()) {
+			event.source = source;
+			event.pixels = pixels;
+			event.colourTime = nanos;
+			event.commit();
+		}
+	}
+
+	// The last frame in a few lines, for the overlay
+	String[] summary() {
+		Frame frame = last;
+
+		return new String[] {
+				String.format("%s %s frame %.1f ms, queued %.1f ms", source, frame.kind, frame.nanos / 1e6,
+						frame.queuedNanos / 1e6),
+				String.format("%.2f Mpixel/s, %d tiles on %d threads", frame.pixelsPerSecond() / 1e6, frame.tiles,
+						frame.threads),
+				String.format("%d iterations, mean %.1f, %.1f%% interior", frame.iterations, frame.meanIterations,
+						100 * frame.interiorFraction),
+				String.format("colour %.1f ms", lastColourNanos / 1e6) };
+	}
+
+	public long getFramesRendered() {
+		return framesRendered.get();
+	}
+
+	public long getFramesColoured() {
+		return framesColoured.get();
+	}
+
+	public String getLastFrameKind() {
+		return last.kind;
+	}
+
+	public double getLastFrameMillis() {
+		return last.nanos / 1e6;
+	}
+
+	public double getLastQueueWaitMillis() {
+		return last.queuedNanos / 1e6;
+	}
+
+	public double getLastPixelsPerSecond() {
+		return last.pixelsPerSecond();
+	}
+
+	public long getLastIterations() {
+		return last.iterations;
+	}
+
+	public double getLastMeanIterations() {
+		return last.meanIterations;
+	}
+
+	public double getLastInteriorFraction() {
+		return last.interiorFraction;
+	}
+
+	public long getLastTiles() {
+		return last.tiles;
+	}
+
+	public int getLastThreads() {
+		return last.threads;
+	}
+
+	public double getLastColourMillis() {
+		return lastColourNanos / 1e6;
+	}
+
+	public double getTotalRenderMillis() {
+		return renderNanos.get() / 1e6;
+	}
+
+	public double getTotalColourMillis() {
+		return colourNanos.get() / 1e6;
+	}
+
+	// One rendered frame
+	private static class Frame {
+
+		final String kind;
+		final long nanos, queuedNanos;
+		final int pixels;
+		// Iterations this render did or skipped, then per pixel of the whole frame
+		final long iterations;
+		final double meanIterations;
+		// Pixels which reached the cap
+		final double interiorFraction;
+		final long tiles;
+		final int threads;
+
+		Frame(String kind, long nanos, long queuedNanos, int pixels, long iterations, double meanIterations,
+				double interiorFraction, long tiles, int threads) {
+			this.kind = kind;
+			this.nanos = nanos;
+			this.queuedNanos = queuedNanos;
+			this.pixels = pixels;
+			this.iterations = iterations;
+			this.meanIterations = meanIterations;
+			this.interiorFraction = interiorFraction;
+			this.tiles = tiles;
+			this.threads = threads;
+		}
+
+		double pixelsPerSecond() {
+			return nanos == 0 ? 0 : pixels * 1e9 / nanos;
+		}
+	}
+
+	@Name("fractal.FrameRendered")
+	@Label("Frame Rendered")
+	@Category("Fractal Explorer")
+	@Description("A frame iterated by a panel or the render service")
+	static class FrameEvent extends Event {
+
+		@Label("Source")
+		String source;
+
+		@Label("Kind")
+		@Description("full, preview, resumed, reused or loaded")
+		String kind;
+
+		@Label("Fractal")
+		String fractal;
+
+		@Label("Width")
+		int width;
+
+		@Label("Height")
+		int height;
+
+		@Label("Iteration Cap")
+		int maxIterations;
+
+		@Label("Render Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long renderTime;
+
+		@Label("Queue Wait")
+		@Timespan(Timespan.NANOSECONDS)
+		long queueWait;
+
+		@Label("Pixels per Second")
+		double pixelsPerSecond;
+
+		@Label("Iterations")
+		long iterations;
+
+		@Label("Mean Iterations")
+		double meanIterations;
+
+		@Label("Interior Fraction")
+		@Percentage
+		double interiorFraction;
+
+		@Label("Tiles")
+		long tiles;
+
+		@Label("Threads")
+		int threads;
+	}
+
+	@Name("fractal.FrameColoured")
+	@Label("Frame Coloured")
+	@Category("Fractal Explorer")
+	static class ColourEvent extends Event {
+
+		@Label("Source")
+		String source;
+
+		@Label("Pixels")
+		int pixels;
+
+		@Label("Colour Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long colourTime;
+	}
+}
@@ -0,0 +1,33 @@
+// What RenderMetrics shows over JMX, under fractal:type=RenderMetrics,name=<source>
+public interface RenderMetricsMBean {
+
+	long getFramesRendered();
+
+	long getFramesColoured();
+
+	// The last frame rendered, all zero until there is one
+	String getLastFrameKind();
+
+	double getLastFrameMillis();
+
+	double getLastQueueWaitMillis();
+
+	double getLastPixelsPerSecond();
+
+	long getLastIterations();
+
+	double getLastMeanIterations();
+
+	double getLastInteriorFraction();
+
+	long getLastTiles();
+
+	int getLastThreads();
+
+	double getLastColourMillis();
+
+	// Since the application started
+	double getTotalRenderMillis();
+
+	double getTotalColourMillis();
+}
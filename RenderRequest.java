@@ -0,0 +1,305 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+// Everything that decides the pixels and colours of one render: the area
+// of the plane, the image size, the fractal, the iteration cap and the
+// palette. Fixed once made, so any number of renders of different views can
+// run at once without reading the panels' settings while they work. Start
+// from DEFAULT and change it with the with methods, each of which returns
+// a changed copy
+final class RenderRequest {
+
+	enum Fractal {
+		MANDELBROT, BURNING_SHIP, JULIA
+	}
+
+	// The whole Mandelbrot set at the size of the main panel
+	final static RenderRequest DEFAULT = new RenderRequest(Fractal.MANDELBROT, 0, 0, GenerateFractals.DEFAULT_MINX,
+			GenerateFractals.DEFAULT_MAXX, GenerateFractals.DEFAULT_MINY, GenerateFractals.DEFAULT_MAXY, null,
+			GenerateMandlebrotBurningShip.MBBS_WIDTH, GenerateMandlebrotBurningShip.MBBS_HEIGHT, 0,
+			GenerateMandlebrotBurningShip.MBBS_HEIGHT, 100, 100, Palette.RAINBOW, 1, true, false, false);
+
+	final Fractal fractal;
+	// Point of the Julia set, unused for the other fractals
+	final double juliaReal, juliaImaginary;
+
+	// Area of the plane, which only approximates deepZoom when there is one
+	final double minX, maxX, minY, maxY;
+	final DeepZoom deepZoom;
+
+	// Size of the whole image, and the band of its rows rendered, firstRow
+	// onwards. The buffer rendered into is width x rows
+	final int width, height;
+	final int firstRow, rows;
+
+	// Iterations before a point is taken to be in the set
+	final int maxIterations;
+	// Iteration count the palette is spread over, which is also drawn black.
+	// Previews may stop earlier than this and still colour like the full frame
+	final int colourIterations;
+
+	final Palette palette;
+	final int colourCycles;
+	final boolean smoothColouring;
+	// Spread the palette by how many pixels escape at each iteration count
+	// rather than evenly up to colourIterations
+	final boolean histogramColouring;
+
+	// Render by Mariani-Silver subdivision rather than pixel by pixel, where
+	// the fractal allows it, see tracesBoundaries
+	final boolean boundaryTracing;
+	// Whether this fractal is safe to trace, worked out once per request
+	private final boolean traceable;
+
+	private RenderRequest(Fractal fractal, double juliaReal, double juliaImaginary, double minX, double maxX,
+			double minY, double maxY, DeepZoom deepZoom, int width, int height, int firstRow, int rows,
+			int maxIterations, int colourIterations, Palette palette, int colourCycles, boolean smoothColouring,
+			boolean histogramColouring, boolean boundaryTracing) {
+		if (width <= 0 || height <= 0 || rows <= 0 || firstRow < 0 || firstRow + rows > height) {
+			throw new IllegalArgumentException("Bad image size " + width + "x" + height + ", rows " + firstRow
+					+ " to " + (firstRow + rows));
+		}
+		if (maxIterations < 1 || colourIterations < 1) {
+			throw new IllegalArgumentException("Iterations must be at least 1");
+		}
+		this.fractal = fractal;
+		this.juliaReal = juliaReal;
+		this.juliaImaginary = juliaImaginary;
+		this.minX = minX;
+		this.maxX = maxX;
+		this.minY = minY;
+		this.maxY = maxY;
+		this.deepZoom = deepZoom;
+		this.width = width;
+		this.height = height;
+		this.firstRow = firstRow;
+		this.rows = rows;
+		this.maxIterations = maxIterations;
+		this.colourIterations = colourIterations;
+		this.palette = palette;
+		this.colourCycles = colourCycles;
+		this.smoothColouring = smoothColouring;
+		this.histogramColouring = histogramColouring;
+		this.boundaryTracing = boundaryTracing;
+
+		traceable = boundaryTracing && (fractal == Fractal.MANDELBROT
+				|| fractal == Fractal.JULIA && connected(juliaReal, juliaImaginary, maxIterations));
+	}
+
+	RenderRequest withFractal(Fractal fractal) {
+		return new RenderRequest(fractal, juliaReal, juliaImaginary, minX, maxX, minY, maxY, deepZoom, width,
+				height, firstRow, rows, maxIterations, colourIterations, palette, colourCycles, smoothColouring,
+				histogramColouring, boundaryTracing);
+	}
+
+	// The Julia set of the point re + im i
+	RenderRequest withJulia(double re, double im) {
+		return new RenderRequest(Fractal.JULIA, re, im, minX, maxX, minY, maxY, deepZoom, width, height, firstRow,
+				rows, maxIterations, colourIterations, palette, colourCycles, smoothColouring, histogramColouring,
+				boundaryTracing);
+	}
+
+	// Double bounds, leaving deep zoom
+	RenderRequest withViewport(double minX, double maxX, double minY, double maxY) {
+		return new RenderRequest(fractal, juliaReal, juliaImaginary, minX, maxX, minY, maxY, null, width, height,
+				firstRow, rows, maxIterations, colourIterations, palette, colourCycles, smoothColouring,
+				histogramColouring, boundaryTracing);
+	}
+
+	// High precision viewport, with the double bounds nearest to it
+	RenderRequest withDeepZoom(DeepZoom deepZoom) {
+		return new RenderRequest(fractal, juliaReal, juliaImaginary, deepZoom.minX(), deepZoom.maxX(),
+				deepZoom.minY(), deepZoom.maxY(), deepZoom, width, height, firstRow, rows, maxIterations,
+				colourIterations, palette, colourCycles, smoothColouring, histogramColouring,
+				boundaryTracing);
+	}
+
+	// The whole of a width x height image
+	RenderRequest withSize(int width, int height) {
+		return new RenderRequest(fractal, juliaReal, juliaImaginary, minX, maxX, minY, maxY, deepZoom, width,
+				height, 0, height, maxIterations, colourIterations, palette, colourCycles, smoothColouring,
+				histogramColouring, boundaryTracing);
+	}
+
+	// Only rows firstRow to firstRow + rows of the image
+	RenderRequest withRows(int firstRow, int rows) {
+		return new RenderRequest(fractal, juliaReal, juliaImaginary, minX, maxX, minY, maxY, deepZoom, width,
+				height, firstRow, rows, maxIterations, colourIterations, palette, colourCycles, smoothColouring,
+				histogramColouring, boundaryTracing);
+	}
+
+	// Both the iteration cap and the count the palette is spread over
+	RenderRequest withIterations(int maxIterations) {
+		return new RenderRequest(fractal, juliaReal, juliaImaginary, minX, maxX, minY, maxY, deepZoom, width,
+				height, firstRow, rows, maxIterations, maxIterations, palette, colourCycles, smoothColouring,
+				histogramColouring, boundaryTracing);
+	}
+
+	// Only the iteration cap, colouring as before
+	RenderRequest withIterationCap(int maxIterations) {
+		return new RenderRequest(fractal, juliaReal, juliaImaginary, minX, maxX, minY, maxY, deepZoom, width,
+				height, firstRow, rows, maxIterations, colourIterations, palette, colourCycles, smoothColouring,
+				histogramColouring, boundaryTracing);
+	}
+
+	RenderRequest withColouring(int colourIterations, Palette palette, int colourCycles, boolean smoothColouring) {
+		return new RenderRequest(fractal, juliaReal, juliaImaginary, minX, maxX, minY, maxY, deepZoom, width,
+				height, firstRow, rows, maxIterations, colourIterations, palette, colourCycles, smoothColouring,
+				histogramColouring, boundaryTracing);
+	}
+
+	RenderRequest withHistogramColouring(boolean histogramColouring) {
+		return new RenderRequest(fractal, juliaReal, juliaImaginary, minX, maxX, minY, maxY, deepZoom, width,
+				height, firstRow, rows, maxIterations, colourIterations, palette, colourCycles, smoothColouring,
+				histogramColouring, boundaryTracing);
+	}
+
+	RenderRequest withBoundaryTracing(boolean boundaryTracing) {
+		return new RenderRequest(fractal, juliaReal, juliaImaginary, minX, maxX, minY, maxY, deepZoom, width,
+				height, firstRow, rows, maxIterations, colourIterations, palette, colourCycles, smoothColouring,
+				histogramColouring, boundaryTracing);
+	}
+
+	// Writes everything that decides the pixels, but not their colours, for
+	// read to make the request again in another process
+	void write(DataOutput out) throws IOException {
+		out.writeUTF(fractal.name());
+		out.writeDouble(juliaReal);
+		out.writeDouble(juliaImaginary);
+		out.writeBoolean(deepZoom != null);
+		if (deepZoom != null) {
+			out.writeUTF(deepZoom.centreX.toString());
+			out.writeUTF(deepZoom.centreY.toString());
+			out.writeDouble(deepZoom.spanX);
+			out.writeDouble(deepZoom.spanY);
+		} else {
+			out.writeDouble(minX);
+			out.writeDouble(maxX);
+			out.writeDouble(minY);
+			out.writeDouble(maxY);
+		}
+		out.writeInt(width);
+		out.writeInt(height);
+		out.writeInt(firstRow);
+		out.writeInt(rows);
+		out.writeInt(maxIterations);
+		out.writeBoolean(boundaryTracing);
+	}
+
+	// A request written by write, coloured as DEFAULT
+	static RenderRequest read(DataInput in) throws IOException {
+		try {
+			Fractal fractal = Fractal.valueOf(in.readUTF());
+			double juliaReal = in.readDouble();
+			double juliaImaginary = in.readDouble();
+			DeepZoom deepZoom = null;
+			double[] bounds = new double[4];
+
+			if (in.readBoolean()) {
+				deepZoom = new DeepZoom(new BigDecimal(in.readUTF()), new BigDecimal(in.readUTF()), in.readDouble(),
+						in.readDouble());
+				bounds = new double[] { deepZoom.minX(), deepZoom.maxX(), deepZoom.minY(), deepZoom.maxY() };
+			} else {
+				for (int i = 0; i < 4; i++) {
+					bounds[i] = in.readDouble();
+				}
+			}
+			int width = in.readInt();
+			int height = in.readInt();
+			int firstRow = in.readInt();
+			int rows = in.readInt();
+			int maxIterations = in.readInt();
+
+			return new RenderRequest(fractal, juliaReal, juliaImaginary, bounds[0], bounds[1], bounds[2], bounds[3],
+					deepZoom, width, height, firstRow, rows, maxIterations, maxIterations, DEFAULT.palette,
+					DEFAULT.colourCycles, DEFAULT.smoothColouring, DEFAULT.histogramColouring, in.readBoolean());
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Bad render request: " + e.getMessage(), e);
+		}
+	}
+
+	// A new kernel for one render, so that its stats only count that render.
+	// Deep zoom computes the reference orbit once for the whole image
+	EscapeKernel kernel() {
+		switch (fractal) {
+		case BURNING_SHIP:
+			return EscapeKernel.burningShip();
+		case JULIA:
+			return EscapeKernel.julia(juliaReal, juliaImaginary);
+		default:
+			if (deepZoom != null) {
+				return deepZoom.kernel(width, height, maxIterations);
+			}
+			return EscapeKernel.mandelbrot();
+		}
+	}
+
+	// Stores the point the kernel iterates for pixel (x, y) of the buffer in
+	// c[0] + c[1]i. In deep zoom each pixel is given as its offset from the centre
+	void pointAt(EscapeKernel kernel, int x, int y, double[] c) {
+		pointAt(kernel, (double) x, (double) y, c);
+	}
+
+	// The point at (x, y), which may lie between the pixels' own points
+	void pointAt(EscapeKernel kernel, double x, double y, double[] c) {
+		y += firstRow;
+
+		if (kernel instanceof PerturbationKernel) {
+			PerturbationKernel deep = (PerturbationKernel) kernel;
+			c[0] = (x - width / 2.0) * deep.spanX / width;
+			c[1] = (y - height / 2.0) * deep.spanY / height;
+		} else {
+			c[0] = minX + x * (maxX - minX) / width;
+			c[1] = minY + y * (maxY - minY) / height;
+		}
+	}
+
+	// Iterates the point under pixel (x, y) of the buffer
+	int iteratePixel(EscapeKernel kernel, int x, int y, double[] z) {
+		pointAt(kernel, x, y, z);
+
+		return kernel.iterate(z[0], z[1], maxIterations, z);
+	}
+
+	// Whether tiles are rendered by boundary tracing. Filling a rectangle
+	// from its border is only safe on a connected set with no holes in its
+	// escape bands: the Mandelbrot set, and a Julia set whose constant is in
+	// the Mandelbrot set. The Burning Ship and the dust Julia sets of
+	// escaping constants would have whole islands painted over, so they are
+	// rendered pixel by pixel
+	boolean tracesBoundaries() {
+		return traceable;
+	}
+
+	// Whether the Julia set of k = kr + ki i is connected, as far as the cap
+	// can tell: k does not escape from the Mandelbrot set
+	static boolean connected(double kr, double ki, int maxIterations) {
+		return new EscapeKernel.Mandelbrot().iterate(kr, ki, maxIterations, new double[2]) == maxIterations;
+	}
+
+	// Iteration count of the points which never escape: the cap, or one
+	// fewer for a Julia set, whose loop stops there
+	int interiorIterations() {
+		return fractal == Fractal.JULIA ? maxIterations - 1 : maxIterations;
+	}
+
+	// Everything apart from the iteration cap and colouring that decides the
+	// pixels, to tell whether a render can carry on from an earlier one
+	String view() {
+		String view = fractal + "," + juliaReal + "," + juliaImaginary + "," + width + "x" + height + ","
+				+ firstRow + "," + rows + "," + minX + "," + maxX + "," + minY + "," + maxY;
+
+		if (deepZoom != null) {
+			view += "," + deepZoom.centreX + "," + deepZoom.centreY + "," + deepZoom.spanX + "," + deepZoom.spanY;
+		}
+		return view;
+	}
+
+	// Where the pixels are sampled, for reusing them in a later render
+	PixelGrid grid() {
+		return new PixelGrid(width, rows, minX, maxX, minY, maxY, deepZoom,
+				fractal + "," + juliaReal + "," + juliaImaginary + "," + firstRow + "," + maxIterations);
+	}
+}
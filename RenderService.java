@@ -0,0 +1,104 @@
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Renders requests in the background on the shared pool, any number at a
+// time. Each render works only from its own request, so renders of
+// different views for different clients never share state and their tiles
+// simply interleave on the pool. Cancelling a returned future stops its
+// render at the next row
+class RenderService {
+
+	// Used by everything which renders outside the panels
+	final static RenderService SHARED = new RenderService("RenderService");
+
+	// Timings of every render, also published over JMX and to Flight Recorder
+	final RenderMetrics metrics;
+
+	RenderService(String name) {
+		metrics = RenderMetrics.register(name);
+	}
+
+	// Iterates every pixel of the request, completing with the buffer and
+	// its stats
+	CompletableFuture<IterationBuffer> iterate(RenderRequest request) {
+		return iterate(request, null);
+	}
+
+	// As above with a kernel shared by several requests, such as the bands of
+	// one image, so that a deep zoom's reference orbit is only computed once.
+	// The buffer's stats are then those of the shared kernel
+	CompletableFuture<IterationBuffer> iterate(RenderRequest request, EscapeKernel shared) {
+		return iterate(request, shared, null, null);
+	}
+
+	// As iterate(request), first copying the samples of previous, a buffer
+	// of the earlier request, which land on this request's pixels, such as
+	// every other pixel of a view zoomed in twice as far. Only the rest are
+	// iterated
+	CompletableFuture<IterationBuffer> iterate(RenderRequest request, RenderRequest earlier,
+			IterationBuffer previous) {
+		return iterate(request, null, earlier, previous);
+	}
+
+	private CompletableFuture<IterationBuffer> iterate(RenderRequest request, EscapeKernel shared,
+			RenderRequest earlier, IterationBuffer previous) {
+		CompletableFuture<IterationBuffer> future = new CompletableFuture<>();
+		AtomicInteger generation = new AtomicInteger();
+		long submitted = System.nanoTime();
+
+		// The render is abandoned once its generation moves on
+		future.whenComplete((buffer, e) -> {
+			if (future.isCancelled()) {
+				generation.incrementAndGet();
+			}
+		});
+
+		TileRenderer.POOL.execute(() -> {
+			if (future.isDone()) {
+				return;
+			}
+			long started = System.nanoTime();
+			try {
+				EscapeKernel kernel = shared != null ? shared : request.kernel();
+				IterationBuffer buffer = new IterationBuffer(request.width, request.rows);
+				boolean[] reused = null;
+
+				if (previous != null) {
+					PixelGrid grid = request.grid();
+					PixelGrid earlierGrid = earlier.grid();
+					if (grid.overlaps(earlierGrid)) {
+						reused = buffer.copySamples(previous, grid.columnsFrom(earlierGrid), grid.rowsFrom(earlierGrid));
+					}
+				}
+
+				boolean done = reused != null ? TileRenderer.render(request, kernel, buffer, generation, 0, reused)
+						: TileRenderer.render(request, kernel, buffer, generation, 0, 1, 0);
+				if (done) {
+					buffer.stats = kernel.stats;
+					metrics.frame(reused != null ? "reused" : "full", request, buffer, kernel.stats, started - submitted,
+							System.nanoTime() - started);
+					future.complete(buffer);
+				}
+			} catch (RuntimeException | Error e) {
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+
+	// Iterates and colours the request, completing with the image
+	CompletableFuture<BufferedImage> render(RenderRequest request) {
+		return iterate(request).thenApplyAsync(buffer -> image(request, buffer), TileRenderer.POOL);
+	}
+
+	// Colours a buffer of the request into a new image
+	private BufferedImage image(RenderRequest request, IterationBuffer buffer) {
+		BufferedImage image = new BufferedImage(buffer.width, buffer.height, BufferedImage.TYPE_INT_RGB);
+		long start = System.nanoTime();
+		GenerateFractals.colourImage(buffer, new int[buffer.width * buffer.height], image, request);
+		metrics.colour(buffer.width * buffer.height, System.nanoTime() - start);
+
+		return image;
+	}
+}
@@ -0,0 +1,312 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// A frame saved to disk, finished or part way through its render, so that
+// closing the program loses none of a long render. Keeps the request, the
+// iteration and smooth counts of every finished tile and the z each
+// unescaped pixel stopped at. Loading it renders only the tiles which were
+// never finished, and a higher cap carries on from the saved orbits
+//
+// Version 1 of the file, big-endian:
+//   magic, version, then the length and bytes of RenderRequest.write
+//   tile size, number of tiles, whether unescaped pixels were kept
+//   offset in the file and length of each tile's data, 0 if not finished
+//   each finished tile deflated on its own: its iteration counts as the
+//   difference from the pixel before, its smooth counts, then the number of
+//   unescaped pixels and the index in the tile, zr and zi of each
+final class RenderSnapshot {
+
+	final static int MAGIC = 0x46525350;
+	final static int VERSION = 1;
+
+	// Everything that decides the pixels. Read back with the default colouring
+	final RenderRequest request;
+	final IterationBuffer buffer;
+	// Pixels which reached the cap, or null if they were not kept
+	final Unresolved unresolved;
+
+	private final int tilesAcross, tilesDown;
+
+	// A snapshot of a whole-frame render, which may still be running: only
+	// the tiles marked in the buffer's finishedTiles are saved, or all of
+	// them if it has none
+	RenderSnapshot(RenderRequest request, IterationBuffer buffer, Unresolved unresolved) {
+		this.request = request.withRows(0, request.height);
+		this.buffer = buffer;
+		this.unresolved = unresolved;
+
+		tilesAcross = (buffer.width + TileRenderer.TILE_SIZE - 1) / TileRenderer.TILE_SIZE;
+		tilesDown = (buffer.height + TileRenderer.TILE_SIZE - 1) / TileRenderer.TILE_SIZE;
+	}
+
+	private boolean finished(int tile) {
+		return buffer.finishedTiles == null || buffer.finishedTiles.get(tile) != 0;
+	}
+
+	// Whether every tile was finished
+	boolean complete() {
+		for (int tile = 0; tile < tilesAcross * tilesDown; tile++) {
+			if (!finished(tile)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Pixels of the finished tiles, for a render to leave alone, or null if
+	// no tile was finished
+	boolean[] finishedPixels() {
+		boolean[] pixels = new boolean[buffer.width * buffer.height];
+		boolean any = false;
+
+		for (int tile = 0; tile < tilesAcross * tilesDown; tile++) {
+			if (finished(tile)) {
+				int x0 = (tile % tilesAcross) * TileRenderer.TILE_SIZE;
+				int y0 = (tile / tilesAcross) * TileRenderer.TILE_SIZE;
+				int x1 = Math.min(x0 + TileRenderer.TILE_SIZE, buffer.width);
+				int y1 = Math.min(y0 + TileRenderer.TILE_SIZE, buffer.height);
+
+				for (int y = y0; y < y1; y++) {
+					java.util.Arrays.fill(pixels, y * buffer.width + x0, y * buffer.width + x1, true);
+				}
+				any = true;
+			}
+		}
+		return any ? pixels : null;
+	}
+
+	// Writes the snapshot to a file beside path and moves it into place, so
+	// an interrupted save leaves any earlier snapshot there intact. Tiles
+	// still rendering are left out
+	void save(Path path) throws IOException {
+		int tiles = tilesAcross * tilesDown;
+		byte[][] data = new byte[tiles][];
+		for (int tile = 0; tile < tiles; tile++) {
+			if (finished(tile)) {
+				data[tile] = packTile(tile);
+			}
+		}
+
+		ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+		request.write(new DataOutputStream(requestBytes));
+
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(headerBytes);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.writeInt(requestBytes.size());
+		requestBytes.writeTo(header);
+		header.writeInt(TileRenderer.TILE_SIZE);
+		header.writeInt(tiles);
+		header.writeBoolean(unresolved != null);
+
+		// The table of where each tile's data starts
+		long offset = headerBytes.size() + (long) tiles * (Long.BYTES + Integer.BYTES);
+		for (int tile = 0; tile < tiles; tile++) {
+			int length = data[tile] != null ? data[tile].length : 0;
+			header.writeLong(length > 0 ? offset : 0);
+			header.writeInt(length);
+			offset += length;
+		}
+
+		ByteBuffer[] parts = new ByteBuffer[tiles + 1];
+		parts[0] = ByteBuffer.wrap(headerBytes.toByteArray());
+		for (int tile = 0; tile < tiles; tile++) {
+			parts[tile + 1] = ByteBuffer.wrap(data[tile] != null ? data[tile] : new byte[0]);
+		}
+
+		Path directory = path.toAbsolutePath().getParent();
+		Path partial = Files.createTempFile(directory, path.getFileName().toString(), ".part");
+		try {
+			try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.WRITE)) {
+				// One gathering write of the header and every tile
+				long remaining = offset;
+				while (remaining > 0) {
+					remaining -= channel.write(parts);
+				}
+				channel.force(false);
+			}
+			Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(partial);
+		}
+	}
+
+	// A tile's pixels and unescaped orbits, deflated
+	private byte[] packTile(int tile) {
+		int x0 = (tile % tilesAcross) * TileRenderer.TILE_SIZE;
+		int y0 = (tile / tilesAcross) * TileRenderer.TILE_SIZE;
+		int x1 = Math.min(x0 + TileRenderer.TILE_SIZE, buffer.width);
+		int y1 = Math.min(y0 + TileRenderer.TILE_SIZE, buffer.height);
+		int count = unresolved != null ? unresolved.count(tile) : 0;
+
+		ByteBuffer raw = ByteBuffer.allocate((x1 - x0) * (y1 - y0) * (Integer.BYTES + Float.BYTES) + Integer.BYTES
+				+ count * (Integer.BYTES + 2 * Double.BYTES));
+		int last = 0;
+		for (int y = y0; y < y1; y++) {
+			for (int i = y * buffer.width + x0; i < y * buffer.width + x1; i++) {
+				raw.putInt(buffer.iterations[i] - last);
+				last = buffer.iterations[i];
+			}
+		}
+		for (int y = y0; y < y1; y++) {
+			for (int i = y * buffer.width + x0; i < y * buffer.width + x1; i++) {
+				raw.putFloat(buffer.smooth[i]);
+			}
+		}
+		raw.putInt(count);
+		for (int k = 0; k < count; k++) {
+			int i = unresolved.pixel(tile, k);
+			raw.putInt((i / buffer.width - y0) * (x1 - x0) + i % buffer.width - x0);
+			raw.putDouble(unresolved.zr(tile, k));
+			raw.putDouble(unresolved.zi(tile, k));
+		}
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(raw.array());
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(raw.capacity() / 4);
+			byte[] chunk = new byte[1 << 14];
+			while (!deflater.finished()) {
+				out.write(chunk, 0, deflater.deflate(chunk));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	// Reads a snapshot through a read-only mapping of the file
+	static RenderSnapshot load(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(path + " is too large to be a snapshot");
+			}
+			MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (file.getInt() != MAGIC) {
+				throw new IOException(path + " is not a snapshot");
+			}
+			int version = file.getInt();
+			if (version != VERSION) {
+				throw new IOException(path + " is snapshot version " + version + ", expected " + VERSION);
+			}
+			byte[] requestBytes = new byte[file.getInt()];
+			file.get(requestBytes);
+			RenderRequest request = RenderRequest.read(new DataInputStream(new ByteArrayInputStream(requestBytes)));
+
+			int tileSize = file.getInt();
+			if (tileSize != TileRenderer.TILE_SIZE) {
+				throw new IOException(path + " has tiles of " + tileSize + " pixels, expected "
+						+ TileRenderer.TILE_SIZE);
+			}
+			int tiles = file.getInt();
+			boolean kept = file.get() != 0;
+
+			IterationBuffer buffer = new IterationBuffer(request.width, request.height);
+			Unresolved unresolved = kept ? new Unresolved(request.width, request.height, request.maxIterations) : null;
+			RenderSnapshot snapshot = new RenderSnapshot(request, buffer, unresolved);
+			if (tiles != snapshot.tilesAcross * snapshot.tilesDown) {
+				throw new IOException(path + " has " + tiles + " tiles for a " + request.width + "x"
+						+ request.height + " frame");
+			}
+
+			buffer.finishedTiles = new AtomicIntegerArray(tiles);
+			for (int tile = 0; tile < tiles; tile++) {
+				long offset = file.getLong();
+				int length = file.getInt();
+
+				if (length > 0) {
+					ByteBuffer data = file.duplicate();
+					data.position((int) offset).limit((int) offset + length);
+					snapshot.unpackTile(tile, data);
+					buffer.finishedTiles.set(tile, 1);
+				}
+			}
+			return snapshot;
+		} catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+			throw new IOException(path + " is damaged", e);
+		}
+	}
+
+	// Inflates a tile's data back into the buffer and unescaped pixels
+	private void unpackTile(int tile, ByteBuffer data) throws IOException {
+		int x0 = (tile % tilesAcross) * TileRenderer.TILE_SIZE;
+		int y0 = (tile / tilesAcross) * TileRenderer.TILE_SIZE;
+		int x1 = Math.min(x0 + TileRenderer.TILE_SIZE, buffer.width);
+		int y1 = Math.min(y0 + TileRenderer.TILE_SIZE, buffer.height);
+
+		// The most a tile can hold: the counts of every pixel, and every
+		// pixel unescaped. Inflating stops there, so a damaged or hostile
+		// file cannot fill the heap. One byte spare to see it go past
+		int pixels = (x1 - x0) * (y1 - y0);
+		int most = pixels * (Integer.BYTES + Float.BYTES) + Integer.BYTES
+				+ pixels * (Integer.BYTES + 2 * Double.BYTES);
+		byte[] out = new byte[most + 1];
+		int length = 0;
+
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			while (!inflater.finished()) {
+				int n = inflater.inflate(out, length, out.length - length);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Tile " + tile + " is cut short");
+				}
+				length += n;
+				if (length > most) {
+					throw new IOException("Tile " + tile + " is damaged, it inflates past " + most + " bytes");
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Tile " + tile + " is damaged", e);
+		} finally {
+			inflater.end();
+		}
+
+		ByteBuffer raw = ByteBuffer.wrap(out, 0, length);
+		int last = 0;
+		for (int y = y0; y < y1; y++) {
+			for (int i = y * buffer.width + x0; i < y * buffer.width + x1; i++) {
+				last += raw.getInt();
+				buffer.iterations[i] = last;
+			}
+		}
+		for (int y = y0; y < y1; y++) {
+			for (int i = y * buffer.width + x0; i < y * buffer.width + x1; i++) {
+				buffer.smooth[i] = raw.getFloat();
+			}
+		}
+		int count = raw.getInt();
+		if (count < 0 || count > pixels) {
+			throw new IOException("Tile " + tile + " is damaged, it has " + count + " unescaped pixels");
+		}
+		for (int k = 0; k < count; k++) {
+			int i = raw.getInt();
+			if (i < 0 || i >= pixels) {
+				throw new IOException("Tile " + tile + " is damaged, it has no pixel " + i);
+			}
+			double zr = raw.getDouble();
+			double zi = raw.getDouble();
+			if (unresolved != null) {
+				unresolved.add(x0 + i % (x1 - x0), y0 + i / (x1 - x0), zr, zi);
+			}
+		}
+	}
+}
@@ -0,0 +1,156 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+// Renders strips of images for a RenderCoordinator in another process,
+// usually on another machine. Each connection is one coordinator handing
+// out strips one at a time: the worker answers each request with the
+// strip's iteration counts, deflated, and the coordinator colours them. The
+// strips of several connections render at once on the shared pool
+//
+// Listens on the loopback interface unless given an address to bind, such
+// as 0.0.0.0; it renders whatever it is asked, so only expose it to
+// machines you trust
+//
+// java RenderWorker [port] [bind address]
+public class RenderWorker {
+
+	final static int DEFAULT_PORT = 7420;
+
+	// Sent by both ends when a connection opens, then the protocol version
+	final static int MAGIC = 0x46524354;
+	final static int VERSION = 1;
+
+	// Largest strip rendered, so that one request cannot exhaust the heap
+	final static int MAX_STRIP_PIXELS = 1 << 24;
+
+	// Largest iteration cap, as a deep zoom's reference orbit holds that
+	// many points, 64MB of them here
+	final static int MAX_ITERATIONS = 1 << 22;
+
+	// Kernel of the last image, shared by its strips so that a deep zoom's
+	// reference orbit is computed once per worker rather than once per strip
+	private String kernelView;
+	private EscapeKernel kernel;
+
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		InetAddress address = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+
+		RenderWorker worker = new RenderWorker();
+		try (ServerSocket server = new ServerSocket(port, 64, address)) {
+			System.err.println("Rendering for coordinators on " + address.getHostAddress() + ":"
+					+ server.getLocalPort() + " with " + TileRenderer.POOL.getParallelism() + " threads");
+
+			worker.listen(server);
+		}
+	}
+
+	// Serves each coordinator which connects, on a thread of its own, until
+	// the server socket is closed
+	void listen(ServerSocket server) throws IOException {
+		while (true) {
+			Socket socket = server.accept();
+			Thread thread = new Thread(() -> serve(socket), "coordinator " + socket.getRemoteSocketAddress());
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	// Renders strips for one coordinator until it hangs up
+	private void serve(Socket socket) {
+		try (socket) {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+			handshake(out, in);
+
+			while (true) {
+				RenderRequest request;
+				try {
+					request = RenderRequest.read(in);
+				} catch (EOFException e) {
+					// Every strip has been handed out
+					return;
+				}
+
+				IterationBuffer buffer;
+				try {
+					if ((long) request.width * request.rows > MAX_STRIP_PIXELS) {
+						throw new IllegalArgumentException("Strip of " + request.width + "x" + request.rows
+								+ " is larger than " + MAX_STRIP_PIXELS + " pixels");
+					}
+					if (request.maxIterations > MAX_ITERATIONS) {
+						throw new IllegalArgumentException(request.maxIterations + " iterations is more than "
+								+ MAX_ITERATIONS);
+					}
+					buffer = RenderService.SHARED.iterate(request, kernel(request)).join();
+				} catch (RuntimeException e) {
+					out.writeBoolean(false);
+					out.writeUTF(String.valueOf(e.getMessage()));
+					out.flush();
+					continue;
+				}
+
+				byte[] data = buffer.compress();
+				out.writeBoolean(true);
+				out.writeInt(data.length);
+				out.write(data);
+				out.flush();
+			}
+		} catch (IOException e) {
+			System.err.println("Lost coordinator " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+		}
+	}
+
+	// The kernel for the whole image the strip is part of
+	private synchronized EscapeKernel kernel(RenderRequest strip) {
+		RenderRequest image = strip.withRows(0, strip.height);
+		String view = image.view() + "," + image.maxIterations;
+
+		if (!view.equals(kernelView)) {
+			kernel = image.kernel();
+			kernelView = view;
+		}
+		return kernel;
+	}
+
+	// Sends and checks the magic number and version, so that something
+	// other than a worker on the far end fails straight away
+	static void handshake(DataOutputStream out, DataInputStream in) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.flush();
+
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a render worker or coordinator");
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("Protocol version " + version + ", expected " + VERSION);
+		}
+	}
+
+	// Reads the worker's answer to a request for the strip
+	static IterationBuffer readStrip(DataInputStream in, RenderRequest strip) throws IOException {
+		if (!in.readBoolean()) {
+			throw new IOException("Worker failed: " + in.readUTF());
+		}
+		int length = in.readInt();
+		if (length < 0 || length > 2 * MAX_STRIP_PIXELS * (Integer.BYTES + Float.BYTES)) {
+			throw new IOException("Bad strip length " + length);
+		}
+		byte[] data = new byte[length];
+		in.readFully(data);
+
+		return IterationBuffer.decompress(data, strip.width, strip.rows);
+	}
+}
@@ -0,0 +1,200 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Splits a frame into square tiles and renders them in parallel on a work-stealing pool
+class TileRenderer {
+
+	// Width and height of a tile in pixels
+	final static int TILE_SIZE = 32;
+
+	// Spacing of the samples of each pass of an interactive render: 1/16 of
+	// the pixels, then 1/4, then all of them. Each step is half the one before
+	final static int[] PASSES = { 4, 2, 1 };
+
+	// Shared pool, one worker per core unless -Dfractal.threads=N says
+	// otherwise. Idle workers steal tiles from busy ones, so cheap exterior
+	// tiles and expensive interior tiles even out
+	final static ForkJoinPool POOL = new ForkJoinPool(
+			Math.max(1, Integer.getInteger("fractal.threads", Runtime.getRuntime().availableProcessors())));
+
+	// Everything the tiles of one frame share
+	private final RenderRequest request;
+	private final EscapeKernel kernel;
+	private final IterationBuffer buffer;
+	private final AtomicInteger generation;
+	private final int gen;
+	private final int tilesAcross;
+	// Pixels from (0, 0) that this pass samples, and that the previous pass
+	// sampled (0 for none), in both directions
+	private final int step, known;
+	// Pixels already in the buffer, which are not iterated, or null
+	private final boolean[] reused;
+
+	private TileRenderer(RenderRequest request, EscapeKernel kernel, IterationBuffer buffer,
+			AtomicInteger generation, int gen, int step, int known, boolean[] reused) {
+		this.request = request;
+		this.kernel = kernel;
+		this.buffer = buffer;
+		this.generation = generation;
+		this.gen = gen;
+		this.tilesAcross = (buffer.width + TILE_SIZE - 1) / TILE_SIZE;
+		this.step = step;
+		this.known = known;
+		this.reused = reused;
+	}
+
+	// Iterates every pixel of the request into the buffer
+	static void render(RenderRequest request, EscapeKernel kernel, IterationBuffer buffer) {
+		render(request, kernel, buffer, new AtomicInteger(), 0, 1, 0);
+	}
+
+	// Iterates the request into the buffer with one kernel shared by every tile,
+	// giving up on points after its iteration cap, unless generation moves on from
+	// gen, in which case the remaining work is skipped. Only every step-th
+	// pixel of every step-th row is iterated, its result filling the step x
+	// step block below and to its right. Pixels on the grid of the previous
+	// pass, every known-th pixel, are already in the buffer and are not
+	// iterated again. Returns true if the pass was completed
+	static boolean render(RenderRequest request, EscapeKernel kernel, IterationBuffer buffer,
+			AtomicInteger generation, int gen, int step, int known) {
+		return render(new TileRenderer(request, kernel, buffer, generation, gen, step, known, null));
+	}
+
+	// Iterates every pixel of the buffer apart from the reused ones, which
+	// are already there. Returns true if the buffer was completed
+	static boolean render(RenderRequest request, EscapeKernel kernel, IterationBuffer buffer,
+			AtomicInteger generation, int gen, boolean[] reused) {
+		return render(new TileRenderer(request, kernel, buffer, generation, gen, 1, 0, reused));
+	}
+
+	private static boolean render(TileRenderer frame) {
+		int tilesDown = (frame.buffer.height + TILE_SIZE - 1) / TILE_SIZE;
+
+		POOL.invoke(frame.new Tiles(0, frame.tilesAcross * tilesDown));
+
+		return frame.generation.get() == frame.gen;
+	}
+
+	// Renders a single tile
+	private void renderTile(int tile) {
+		// Pixel bounds of this tile, clipped to the buffer
+		int x0 = (tile % tilesAcross) * TILE_SIZE;
+		int y0 = (tile / tilesAcross) * TILE_SIZE;
+		int x1 = Math.min(x0 + TILE_SIZE, buffer.width);
+		int y1 = Math.min(y0 + TILE_SIZE, buffer.height);
+
+		if (reused != null) {
+			// Each run of pixels in a row which still need iterating
+			long copied = 0;
+			for (int y = y0; y < y1 && generation.get() == gen; y++) {
+				int x = x0;
+				while (x < x1) {
+					if (reused[y * buffer.width + x]) {
+						copied++;
+						x++;
+						continue;
+					}
+					int end = x;
+					while (end < x1 && !reused[y * buffer.width + end]) {
+						end++;
+					}
+					computeRow(request, buffer, kernel, x, end, y, 1);
+					x = end;
+				}
+			}
+			kernel.stats.reusedPixels.add(copied);
+			return;
+		}
+
+		if (request.tracesBoundaries() && step == 1) {
+			MarianiSilver.computeTile(request, kernel, buffer, x0, y0, x1, y1, known);
+			return;
+		}
+
+		// One row at a time so that a cancelled render stops quickly
+		// even at high iteration counts
+		for (int y = y0; y < y1 && generation.get() == gen; y += step) {
+			if (known != 0 && y % known == 0) {
+				// Every other sample of this row came from the previous pass
+				computeRow(request, buffer, kernel, x0 + step, x1, y, known);
+			} else {
+				computeRow(request, buffer, kernel, x0, x1, y, step);
+			}
+
+			if (step > 1) {
+				for (int x = x0; x < x1; x += step) {
+					buffer.fill(x, y, Math.min(x + step, x1), Math.min(y + step, y1));
+				}
+			}
+		}
+	}
+
+	// Iterates the pixels x0, x0 + step, x0 + 2 step ... before x1 of row y of
+	// the buffer with the kernel
+	static void computeRow(RenderRequest request, IterationBuffer buffer, EscapeKernel kernel, int x0, int x1,
+			int y, int step) {
+		int maxIterations = request.maxIterations;
+		int n = Math.max(0, (x1 - x0 + step - 1) / step);
+
+		// Points of the row and their results
+		double[] cr = new double[n];
+		double[] ci = new double[n];
+		double[] zr = new double[n];
+		double[] zi = new double[n];
+		int[] iterations = new int[n];
+		double[] c = new double[2];
+
+		for (int i = 0; i < n; i++) {
+			request.pointAt(kernel, x0 + i * step, y, c);
+			cr[i] = c[0];
+			ci[i] = c[1];
+		}
+
+		// Visit each point
+		kernel.iterateRow(cr, ci, n, maxIterations, iterations, zr, zi);
+
+		long rowIterations = 0;
+		for (int i = 0; i < n; i++) {
+			buffer.set(x0 + i * step, y, iterations[i], zr[i], zi[i]);
+			rowIterations += iterations[i];
+
+			// Kept so that a higher cap can carry on from here
+			if (buffer.unresolved != null && iterations[i] == maxIterations) {
+				buffer.unresolved.add(x0 + i * step, y, zr[i], zi[i]);
+			}
+		}
+		kernel.stats.iterations.add(rowIterations);
+	}
+
+	// A range of tile indices, split in half until a single tile is left
+	@SuppressWarnings("serial")
+	private class Tiles extends RecursiveAction {
+
+		private final int first, last;
+
+		Tiles(int first, int last) {
+			this.first = first;
+			this.last = last;
+		}
+
+		protected void compute() {
+			// A newer render has been requested, nobody will see this one
+			if (generation.get() != gen) {
+				return;
+			}
+
+			if (last - first > 1) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new Tiles(first, middle), new Tiles(middle, last));
+			} else {
+				renderTile(first);
+				if (step == 1 && buffer.finishedTiles != null && generation.get() == gen) {
+					buffer.finishedTiles.set(first, 1);
+				}
+				kernel.stats.tiles.increment();
+				kernel.stats.threads.add(Thread.currentThread());
+			}
+		}
+	}
+}
@@ -0,0 +1,369 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Serves fractal tiles over HTTP on the loopback interface, without the
+// Swing UI. Tiles are addressed like web map tiles, /{fractal}/{z}/{x}/{y}.png:
+// level z splits the square from -2 - 2i to 2 + 2i into 2^z x 2^z tiles, with
+// x to the right and y down the imaginary axis as in the panels. The query
+// may set ?iterations=N, &palette=NAME and, for julia, &c=RE,IM
+//
+// Finished tiles are kept encoded in a memory LRU and on disk under the hash
+// of everything that decides their pixels. Concurrent requests for a tile
+// which is being rendered wait for that render instead of starting another
+//
+// java TileServer [port] [cache directory]
+public class TileServer {
+
+	// Width and height of a tile in pixels
+	final static int TILE_PIXELS = 256;
+
+	// Deepest level served, where a tile is about 2^-46 wide
+	final static int MAX_LEVEL = 48;
+
+	final static int DEFAULT_ITERATIONS = 500;
+	final static int MAX_ITERATIONS = 100000;
+	final static double[] DEFAULT_JULIA = { -0.7, 0.27015 };
+
+	// Encoded tiles kept in memory
+	final static long MEMORY_CACHE_BYTES = 64L << 20;
+
+	private final Path cacheDirectory;
+
+	// Least recently served tiles first, with the bytes they hold
+	private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(256, 0.75f, true);
+	private long memoryBytes;
+
+	// Tiles being rendered or read from disk, for coalescing requests
+	private final ConcurrentHashMap<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+	// Where tiles came from, served at /stats
+	private final LongAdder memoryHits = new LongAdder();
+	private final LongAdder diskHits = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder rendered = new LongAdder();
+
+	TileServer(Path cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		Path cache = Paths.get(args.length > 1 ? args[1] : "tile-cache");
+
+		TileServer tiles = new TileServer(cache);
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 256);
+
+		server.createContext("/", tiles::handle);
+		// Request threads mostly wait on the render pool or the disk
+		server.setExecutor(Executors.newFixedThreadPool(4 * Runtime.getRuntime().availableProcessors()));
+		server.start();
+
+		System.err.println("Serving tiles on http://" + server.getAddress().getHostString() + ":" + port
+				+ "/mandelbrot/0/0/0.png, caching in " + cache.toAbsolutePath());
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			URI uri = exchange.getRequestURI();
+
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				send(exchange, 405, "text/plain", "Only GET is supported\n".getBytes(StandardCharsets.UTF_8));
+			} else if (uri.getPath().equals("/stats")) {
+				send(exchange, 200, "text/plain", stats().getBytes(StandardCharsets.UTF_8));
+			} else {
+				Tile tile;
+				try {
+					tile = Tile.parse(uri.getPath(), uri.getRawQuery());
+				} catch (IllegalArgumentException e) {
+					send(exchange, 404, "text/plain", (e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+					return;
+				}
+				exchange.getResponseHeaders().set("Cache-Control", "public, max-age=86400");
+				exchange.getResponseHeaders().set("ETag", '"' + tile.hash + '"');
+				send(exchange, 200, "image/png", tile(tile));
+			}
+		} catch (RuntimeException e) {
+			System.err.println("Could not render " + exchange.getRequestURI() + ": " + e);
+			send(exchange, 500, "text/plain", "Could not render tile\n".getBytes(StandardCharsets.UTF_8));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static void send(HttpExchange exchange, int status, String type, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", type);
+		exchange.sendResponseHeaders(status, body.length);
+
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	// The encoded tile, from memory, from disk or rendered, in that order
+	byte[] tile(Tile tile) {
+		byte[] png = remembered(tile.hash);
+		if (png != null) {
+			memoryHits.increment();
+			return png;
+		}
+
+		CompletableFuture<byte[]> mine = new CompletableFuture<>();
+		CompletableFuture<byte[]> running = inFlight.putIfAbsent(tile.hash, mine);
+		if (running != null) {
+			coalesced.increment();
+			return running.join();
+		}
+
+		try {
+			// May have finished between the two checks
+			png = remembered(tile.hash);
+			if (png == null) {
+				png = load(tile);
+				remember(tile.hash, png);
+			}
+			mine.complete(png);
+			return png;
+		} catch (RuntimeException | Error e) {
+			mine.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(tile.hash, mine);
+		}
+	}
+
+	// Reads the tile from the disk cache, or renders it and writes it there
+	private byte[] load(Tile tile) {
+		Path file = cacheDirectory.resolve(tile.hash.substring(0, 2)).resolve(tile.hash + ".png");
+
+		try {
+			if (Files.exists(file)) {
+				diskHits.increment();
+				return Files.readAllBytes(file);
+			}
+			byte[] png = tile.render();
+			rendered.increment();
+
+			// Written aside and moved into place, so a reader never sees half a tile
+			Files.createDirectories(file.getParent());
+			Path partial = Files.createTempFile(file.getParent(), tile.hash, ".part");
+			Files.write(partial, png);
+			Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			return png;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private synchronized byte[] remembered(String hash) {
+		return memory.get(hash);
+	}
+
+	// Adds a tile to the memory cache, dropping the least recently used ones
+	// once over MEMORY_CACHE_BYTES
+	private synchronized void remember(String hash, byte[] png) {
+		byte[] old = memory.put(hash, png);
+		memoryBytes += png.length - (old == null ? 0 : old.length);
+
+		Iterator<byte[]> eldest = memory.values().iterator();
+		while (memoryBytes > MEMORY_CACHE_BYTES && eldest.hasNext()) {
+			memoryBytes -= eldest.next().length;
+			eldest.remove();
+		}
+	}
+
+	private synchronized String stats() {
+		return "memory hits " + memoryHits.sum() + "\ndisk hits " + diskHits.sum() + "\ncoalesced "
+				+ coalesced.sum() + "\nrendered " + rendered.sum() + "\nin memory " + memory.size() + " tiles, "
+				+ memoryBytes + " bytes\n";
+	}
+
+	// Everything that decides the pixels of one tile
+	static class Tile {
+
+		final String fractal;
+		final int level;
+		final long x, y;
+		final int iterations;
+		final Palette palette;
+		// Point of the Julia set, unused for the other fractals
+		final double kr, ki;
+
+		// Hex SHA-256 of the above, naming the tile in both caches
+		final String hash;
+
+		private Tile(String fractal, int level, long x, long y, int iterations, Palette palette, double kr,
+				double ki) {
+			this.fractal = fractal;
+			this.level = level;
+			this.x = x;
+			this.y = y;
+			this.iterations = iterations;
+			this.palette = palette;
+			this.kr = kr;
+			this.ki = ki;
+
+			String key = fractal + "/" + level + "/" + x + "/" + y + "?iterations=" + iterations + "&palette="
+					+ palette.name;
+			if (fractal.equals("julia")) {
+				key += "&c=" + kr + "," + ki;
+			}
+			hash = sha256(key);
+		}
+
+		// Parses /{fractal}/{z}/{x}/{y}.png and its query
+		static Tile parse(String path, String query) {
+			String[] parts = path.split("/");
+			if (parts.length != 5 || !parts[4].endsWith(".png")) {
+				throw new IllegalArgumentException("Tiles are /{fractal}/{z}/{x}/{y}.png");
+			}
+			String fractal = parts[1].toLowerCase();
+			if (!fractal.equals("mandelbrot") && !fractal.equals("burningship") && !fractal.equals("julia")) {
+				throw new IllegalArgumentException("Unknown fractal " + parts[1]);
+			}
+
+			int level;
+			long x, y;
+			try {
+				level = Integer.parseInt(parts[2]);
+				x = Long.parseLong(parts[3]);
+				y = Long.parseLong(parts[4].substring(0, parts[4].length() - 4));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Tile coordinates must be whole numbers");
+			}
+			if (level < 0 || level > MAX_LEVEL || x < 0 || y < 0 || x >= 1L << level || y >= 1L << level) {
+				throw new IllegalArgumentException("No tile " + level + "/" + x + "/" + y);
+			}
+
+			Map<String, String> parameters = new HashMap<>();
+			if (query != null) {
+				for (String parameter : query.split("&")) {
+					int equals = parameter.indexOf('=');
+					if (equals > 0) {
+						parameters.put(parameter.substring(0, equals), parameter.substring(equals + 1));
+					}
+				}
+			}
+
+			int iterations = DEFAULT_ITERATIONS;
+			Palette palette = Palette.RAINBOW;
+			double[] c = DEFAULT_JULIA;
+			try {
+				if (parameters.containsKey("iterations")) {
+					iterations = Integer.parseInt(parameters.get("iterations"));
+				}
+				if (parameters.containsKey("c")) {
+					String[] point = parameters.get("c").split(",");
+					c = new double[] { Double.parseDouble(point[0]), Double.parseDouble(point[1]) };
+				}
+			} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+				throw new IllegalArgumentException("Bad iterations or c");
+			}
+			if (iterations < 1 || iterations > MAX_ITERATIONS) {
+				throw new IllegalArgumentException("Iterations must be from 1 to " + MAX_ITERATIONS);
+			}
+			if (parameters.containsKey("palette")) {
+				palette = null;
+				for (Palette p : Palette.PALETTES) {
+					if (p.name.equalsIgnoreCase(parameters.get("palette"))) {
+						palette = p;
+					}
+				}
+				if (palette == null) {
+					throw new IllegalArgumentException("Unknown palette " + parameters.get("palette"));
+				}
+			}
+			return new Tile(fractal, level, x, y, iterations, palette, c[0], c[1]);
+		}
+
+		// The tile's area of the plane as a render request. Past double
+		// precision the Mandelbrot set is rendered in deep zoom
+		RenderRequest request() {
+			double span = Math.scalb(4.0, -level);
+			double tileX = -2 + x * span;
+			double tileY = -2 + y * span;
+
+			RenderRequest request = RenderRequest.DEFAULT.withSize(TILE_PIXELS, TILE_PIXELS)
+					.withIterations(iterations).withColouring(iterations, palette, 1, true);
+
+			switch (fractal) {
+			case "mandelbrot":
+				if (DeepZoom.needed(tileX, tileX + span, TILE_PIXELS)
+						|| DeepZoom.needed(tileY, tileY + span, TILE_PIXELS)) {
+					// Exact centre, -2 + (2x + 1) 2^-(level - 1) on each axis
+					BigDecimal half = new BigDecimal(Math.scalb(1.0, 1 - level));
+					BigDecimal two = BigDecimal.valueOf(2);
+					BigDecimal centreX = BigDecimal.valueOf(2 * x + 1).multiply(half).subtract(two);
+					BigDecimal centreY = BigDecimal.valueOf(2 * y + 1).multiply(half).subtract(two);
+
+					return request.withDeepZoom(new DeepZoom(centreX, centreY, span, span));
+				}
+				break;
+			case "burningship":
+				request = request.withFractal(RenderRequest.Fractal.BURNING_SHIP);
+				break;
+			default:
+				request = request.withJulia(kr, ki);
+			}
+			return request.withViewport(tileX, tileX + span, tileY, tileY + span);
+		}
+
+		// Renders and encodes the tile
+		byte[] render() {
+			RenderRequest request = request();
+			IterationBuffer buffer = RenderService.SHARED.iterate(request).join();
+			int[] pixels = new int[TILE_PIXELS * TILE_PIXELS];
+
+			GenerateFractals.colourPixels(buffer, pixels, request);
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (PngWriter png = new PngWriter(out, TILE_PIXELS, TILE_PIXELS)) {
+				for (int row = 0; row < TILE_PIXELS; row++) {
+					png.writeRow(pixels, row * TILE_PIXELS);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return out.toByteArray();
+		}
+
+		private static String sha256(String key) {
+			try {
+				byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+				StringBuilder hex = new StringBuilder();
+				for (byte b : digest) {
+					hex.append(String.format("%02x", b));
+				}
+				return hex.toString();
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+import java.util.Arrays;
+
+// Pixels of a frame which reached the iteration cap without escaping, with
+// the z each of them stopped at, so that raising the cap only has to carry
+// on with these. Grouped by tile, since a tile is only ever rendered by one
+// thread at a time, and kept in growing primitive arrays
+class Unresolved {
+
+	// Cap the pixels were iterated to
+	final int maxIterations;
+
+	private final int width, tilesAcross;
+
+	// For each tile, the index of each pixel in the frame and its z as
+	// real and imaginary pairs
+	private final int[][] pixels;
+	private final double[][] z;
+	private final int[] counts;
+
+	Unresolved(int width, int height, int maxIterations) {
+		this.width = width;
+		this.maxIterations = maxIterations;
+
+		tilesAcross = (width + TileRenderer.TILE_SIZE - 1) / TileRenderer.TILE_SIZE;
+		int tiles = tilesAcross * ((height + TileRenderer.TILE_SIZE - 1) / TileRenderer.TILE_SIZE);
+
+		pixels = new int[tiles][];
+		z = new double[tiles][];
+		counts = new int[tiles];
+	}
+
+	// Records pixel (x, y) as stopped at z = zr + zi i
+	void add(int x, int y, double zr, double zi) {
+		int tile = (y / TileRenderer.TILE_SIZE) * tilesAcross + x / TileRenderer.TILE_SIZE;
+		int k = counts[tile]++;
+
+		if (pixels[tile] == null) {
+			pixels[tile] = new int[16];
+			z[tile] = new double[32];
+		} else if (k == pixels[tile].length) {
+			pixels[tile] = Arrays.copyOf(pixels[tile], 2 * k);
+			z[tile] = Arrays.copyOf(z[tile], 4 * k);
+		}
+		pixels[tile][k] = y * width + x;
+		z[tile][2 * k] = zr;
+		z[tile][2 * k + 1] = zi;
+	}
+
+	int tiles() {
+		return counts.length;
+	}
+
+	// Number of pixels recorded in a tile
+	int count(int tile) {
+		return counts[tile];
+	}
+
+	// Index in the frame of the k-th pixel of a tile
+	int pixel(int tile, int k) {
+		return pixels[tile][k];
+	}
+
+	double zr(int tile, int k) {
+		return z[tile][2 * k];
+	}
+
+	double zi(int tile, int k) {
+		return z[tile][2 * k + 1];
+	}
+
+	// Pixels recorded in the whole frame
+	long size() {
+		long size = 0;
+		for (int count : counts) {
+			size += count;
+		}
+		return size;
+	}
+}
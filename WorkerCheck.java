@@ -0,0 +1,107 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+// Checks RenderCoordinator against two RenderWorkers on this machine, run
+// in this process: one listening from the start, the other only after
+// LATE_MILLIS, so that its connections fail and must be made again. The
+// image must match BatchRenderer's pixel for pixel, and the late worker
+// must have rendered some of it. Exits with status 1 otherwise
+//
+// java WorkerCheck [options of BatchRenderer, default a 1800x1400 seahorse valley]
+public class WorkerCheck {
+
+	// How long the second worker waits before listening
+	final static int LATE_MILLIS = 1000;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+
+		BatchRenderer.Options options = new BatchRenderer.Options(true, false);
+		options.width = 1800;
+		options.height = 1400;
+		RenderRequest seahorse = Benchmark.VIEWPORTS[1];
+		options.view = new double[] { seahorse.minX, seahorse.maxX, seahorse.minY, seahorse.maxY };
+		for (int i = 0; i < args.length; i++) {
+			int last = options.parse(args, i);
+			if (last < 0) {
+				System.err.println("Unexpected argument " + args[i]);
+				System.exit(2);
+			}
+			i = last;
+		}
+		RenderRequest request = options.request();
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		BatchRenderer.render(request, request.kernel(), expected);
+
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		ServerSocket early = new ServerSocket(0, 64, loopback);
+		int latePort;
+		try (ServerSocket reserved = new ServerSocket(0, 64, loopback)) {
+			latePort = reserved.getLocalPort();
+		}
+		listen(early, 0);
+		listen(null, latePort);
+
+		List<InetSocketAddress> workers = Arrays.asList(
+				InetSocketAddress.createUnresolved(loopback.getHostAddress(), early.getLocalPort()),
+				InetSocketAddress.createUnresolved(loopback.getHostAddress(), latePort));
+		RenderCoordinator coordinator = new RenderCoordinator(request,
+				RenderCoordinator.WINDOW_PER_CONNECTION * 2 * workers.size());
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		coordinator.render(workers, 2, 60_000, actual);
+		System.err.println(coordinator.summary());
+
+		int differ = differ(expected.toByteArray(), actual.toByteArray());
+		int late = coordinator.rendered(loopback.getHostAddress() + ":" + latePort);
+		System.out.printf("%d of %d pixels differ from BatchRenderer, late worker rendered %d strips%n", differ,
+				request.width * request.height, late);
+		if (differ > 0 || late == 0) {
+			System.exit(1);
+		}
+	}
+
+	// Starts a worker on the server socket, or on a new one on the port
+	// after LATE_MILLIS
+	private static void listen(ServerSocket server, int port) {
+		Thread thread = new Thread(() -> {
+			try {
+				ServerSocket socket = server;
+				if (socket == null) {
+					Thread.sleep(LATE_MILLIS);
+					socket = new ServerSocket(port, 64, InetAddress.getLoopbackAddress());
+				}
+				new RenderWorker().listen(socket);
+			} catch (IOException | InterruptedException e) {
+				System.err.println("Worker failed: " + e);
+			}
+		}, "worker");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// Pixels which differ between two PNG files
+	private static int differ(byte[] a, byte[] b) throws IOException {
+		BufferedImage first = ImageIO.read(new ByteArrayInputStream(a));
+		BufferedImage second = ImageIO.read(new ByteArrayInputStream(b));
+		int differ = 0;
+
+		for (int y = 0; y < first.getHeight(); y++) {
+			for (int x = 0; x < first.getWidth(); x++) {
+				if (first.getRGB(x, y) != second.getRGB(x, y)) {
+					differ++;
+				}
+			}
+		}
+		return differ;
+	}
+}
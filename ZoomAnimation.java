@@ -0,0 +1,311 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Renders a zoom into a point as a numbered sequence of PNG files without
+// opening a window. The point stays where it is on screen while everything
+// else grows around it, so the view drifts onto it as the zoom deepens.
+//
+// Several frames are in flight at once, each going through render, colour,
+// encode and write stages, and a new frame is only started once one has been
+// written. When the zoom doubles after a whole number of frames, each frame
+// starts with the samples of the frame one doubling before it, which land on
+// every other pixel, so only three quarters of its pixels are iterated
+//
+// java ZoomAnimation [options] frames/zoom-%05d.png
+//   --size WIDTHxHEIGHT         image size, default 900x700
+//   --view MINX,MAXX,MINY,MAXY  first frame, default the whole set
+//   --centre RE,IM              point zoomed into, to as many digits as needed
+//   --zoom RATE                 magnification from one frame to the next
+//   --doubling N                or the frames it takes to zoom in twice, default 30
+//   --frames N                  length of the sequence, default 300
+//   --fractal NAME              mandelbrot, burningship or julia
+//   --julia RE,IM               point of the Julia set, default -0.7,0.27015
+//   --iterations N              iterations before a point is taken to be in the set
+//   --palette NAME              Rainbow, Fire, Ocean or Greyscale
+//   --cycles N                  times the palette repeats
+//   --pipeline N                frames in flight at once, default one more than the cores
+//
+// The output is a file name pattern numbered from 0 with String.format, or a
+// directory to write frame-00000.png onwards into
+public class ZoomAnimation {
+
+	final static int DEFAULT_FRAMES = 300;
+	final static int DEFAULT_DOUBLING = 30;
+
+	// The first frame, moved by under two pixels so that the centre lies on
+	// an even pixel and the pixels of each doubling line up
+	private final RenderRequest first;
+	// Point zoomed into
+	private final BigDecimal centreX, centreY;
+	private final double rate;
+	private final int frames;
+	// Frames from one frame to the frame magnified twice over, whose samples
+	// are reused, or 0 for no reuse
+	private final int reuseDistance;
+
+	ZoomAnimation(RenderRequest start, BigDecimal centreX, BigDecimal centreY, double rate, int frames) {
+		double x = centreX.doubleValue();
+		double y = centreY.doubleValue();
+		double pixelX = (start.maxX - start.minX) / start.width;
+		double pixelY = (start.maxY - start.minY) / start.height;
+		double minX = x - 2 * Math.rint((x - start.minX) / pixelX / 2) * pixelX;
+		double minY = y - 2 * Math.rint((y - start.minY) / pixelY / 2) * pixelY;
+
+		this.first = start.withViewport(minX, minX + (start.maxX - start.minX), minY,
+				minY + (start.maxY - start.minY));
+		this.centreX = centreX;
+		this.centreY = centreY;
+		this.rate = rate;
+		this.frames = frames;
+
+		long doubling = Math.round(Math.log(2) / Math.abs(Math.log(rate)));
+		this.reuseDistance = doubling >= 1 && doubling < frames
+				&& Math.abs(doubling * Math.abs(Math.log(rate)) - Math.log(2)) < 1e-9 ? (int) doubling : 0;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		// Nothing here needs a display
+		System.setProperty("java.awt.headless", "true");
+
+		BatchRenderer.Options options = new BatchRenderer.Options(true, false);
+		RenderRequest start;
+		BigDecimal[] centre = null;
+		double rate = Math.pow(2, 1.0 / DEFAULT_DOUBLING);
+		int frames = DEFAULT_FRAMES;
+		int pipeline = Runtime.getRuntime().availableProcessors() + 1;
+		String output = null;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				int last = options.parse(args, i);
+				if (last >= 0) {
+					i = last;
+					continue;
+				}
+				switch (args[i]) {
+				case "--centre":
+					String[] parts = BatchRenderer.Options.value(args, i++).split(",");
+					if (parts.length != 2) {
+						throw new IllegalArgumentException("Expected 2 numbers in " + args[i]);
+					}
+					centre = new BigDecimal[] { new BigDecimal(parts[0].trim()), new BigDecimal(parts[1].trim()) };
+					break;
+				case "--zoom":
+					rate = Double.parseDouble(BatchRenderer.Options.value(args, i++));
+					break;
+				case "--doubling":
+					rate = Math.pow(2, 1.0 / Integer.parseInt(BatchRenderer.Options.value(args, i++)));
+					break;
+				case "--frames":
+					frames = Integer.parseInt(BatchRenderer.Options.value(args, i++));
+					break;
+				case "--pipeline":
+					pipeline = Integer.parseInt(BatchRenderer.Options.value(args, i++));
+					break;
+				default:
+					if (args[i].startsWith("--") || output != null) {
+						throw new IllegalArgumentException("Unexpected argument " + args[i]);
+					}
+					output = args[i];
+				}
+			}
+			if (output == null) {
+				throw new IllegalArgumentException("No output given");
+			}
+			if (!(rate > 0) || rate == 1 || Double.isInfinite(rate)) {
+				throw new IllegalArgumentException("Zoom rate must be positive and not 1");
+			}
+			if (frames < 1 || pipeline < 1) {
+				throw new IllegalArgumentException("Frames and pipeline must be at least 1");
+			}
+			// Frames past double precision switch to deep zoom in frame()
+			start = options.request();
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: java ZoomAnimation " + BatchRenderer.Options.USAGE + " [--centre re,im]"
+					+ " [--zoom rate | --doubling N] [--frames N] [--palette name] [--cycles N] [--pipeline N]"
+					+ " output");
+			System.exit(2);
+			return;
+		}
+		if (centre == null) {
+			double[] view = options.view;
+			centre = new BigDecimal[] { new BigDecimal((view[0] + view[1]) / 2),
+					new BigDecimal((view[2] + view[3]) / 2) };
+		}
+
+		// A directory gets numbered files of its own
+		String pattern = output.contains("%") ? output : Paths.get(output, "frame-%05d.png").toString();
+		Path parent = Paths.get(String.format(pattern, 0)).toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+
+		ZoomAnimation animation = new ZoomAnimation(start, centre[0], centre[1], rate, frames);
+
+		long began = System.nanoTime();
+		try {
+			int reused = animation.render(pattern, pipeline);
+			System.err.printf("Wrote %d frames to %s in %.1f s, %d of them seeded from an earlier frame%n", frames,
+					pattern, (System.nanoTime() - began) / 1e9, reused);
+		} catch (CompletionException e) {
+			System.err.println();
+			System.err.println("Animation failed: " + e.getCause());
+			System.exit(1);
+		}
+	}
+
+	// Frame k of the sequence, magnified rate^k times about the centre.
+	// Past double precision a Mandelbrot frame becomes a deep zoom about the
+	// full precision centre
+	RenderRequest frame(int k) {
+		double shrink = Math.pow(rate, -k);
+		double x = centreX.doubleValue();
+		double y = centreY.doubleValue();
+		double minX = x + (first.minX - x) * shrink;
+		double maxX = x + (first.maxX - x) * shrink;
+		double minY = y + (first.minY - y) * shrink;
+		double maxY = y + (first.maxY - y) * shrink;
+
+		if (first.fractal == RenderRequest.Fractal.MANDELBROT
+				&& (DeepZoom.needed(minX, maxX, first.width) || DeepZoom.needed(minY, maxY, first.height))) {
+			// The first frame's centre moves towards the point in proportion
+			BigDecimal scale = new BigDecimal(shrink);
+			BigDecimal firstX = new BigDecimal((first.minX + first.maxX) / 2);
+			BigDecimal firstY = new BigDecimal((first.minY + first.maxY) / 2);
+
+			return first.withDeepZoom(new DeepZoom(centreX.add(firstX.subtract(centreX).multiply(scale)),
+					centreY.add(firstY.subtract(centreY).multiply(scale)), (first.maxX - first.minX) * shrink,
+					(first.maxY - first.minY) * shrink));
+		}
+		return first.withViewport(minX, maxX, minY, maxY);
+	}
+
+	// Renders every frame to the files named by pattern, with at most
+	// pipeline frames between starting to render and being written. Returns
+	// the number of frames seeded from an earlier one, and throws
+	// CompletionException if any stage failed
+	int render(String pattern, int pipeline) throws InterruptedException {
+		ExecutorService encoders = Executors.newFixedThreadPool(TileRenderer.POOL.getParallelism(), daemon());
+		ExecutorService writer = Executors.newSingleThreadExecutor(daemon());
+		Semaphore inFlight = new Semaphore(pipeline);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		AtomicInteger written = new AtomicInteger();
+		AtomicInteger reused = new AtomicInteger();
+
+		// Each reused frame keeps a whole buffer alive until the frame a
+		// doubling on, so give up on reuse rather than run out of memory
+		int distance = reuseDistance;
+		long kept = (long) distance * first.width * first.height * (Integer.BYTES + Float.BYTES);
+		if (kept > Runtime.getRuntime().maxMemory() / 2) {
+			System.err.printf("Not reusing samples, %d frames of %dx%d need more memory than -Xmx allows%n", distance,
+					first.width, first.height);
+			distance = 0;
+		}
+
+		// Buffers still to be reused, by frame
+		List<CompletableFuture<IterationBuffer>> buffers = new ArrayList<>();
+		List<CompletableFuture<Void>> done = new ArrayList<>();
+
+		try {
+			for (int k = 0; k < frames && failure.get() == null; k++) {
+				// Backpressure: wait for a frame to be written
+				inFlight.acquire();
+
+				int frame = k;
+				RenderRequest request = frame(k);
+				CompletableFuture<IterationBuffer> buffer;
+
+				if (distance > 0 && k >= distance) {
+					RenderRequest earlier = frame(k - distance);
+					buffer = buffers.get(k - distance)
+							.thenCompose(previous -> RenderService.SHARED.iterate(request, earlier, previous));
+					buffers.set(k - distance, null);
+				} else {
+					buffer = RenderService.SHARED.iterate(request);
+				}
+				if (distance > 0) {
+					buffers.add(buffer);
+				}
+
+				CompletableFuture<Void> stages = buffer.thenApplyAsync(b -> {
+					if (b.stats.reusedPixels.sum() > 0) {
+						reused.incrementAndGet();
+					}
+					return colour(request, b);
+				}, TileRenderer.POOL).thenApplyAsync(pixels -> encode(request, pixels), encoders)
+						.thenAcceptAsync(png -> write(String.format(pattern, frame), png), writer);
+
+				done.add(stages.whenComplete((v, e) -> {
+					if (e != null) {
+						failure.compareAndSet(null, e);
+					} else {
+						System.err.printf("\r%d/%d frames", written.incrementAndGet(), frames);
+					}
+					inFlight.release();
+				}));
+			}
+			CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+			System.err.println();
+		} finally {
+			encoders.shutdown();
+			writer.shutdown();
+		}
+		return reused.get();
+	}
+
+	// Colours a frame
+	private static int[] colour(RenderRequest request, IterationBuffer buffer) {
+		int[] pixels = new int[buffer.width * buffer.height];
+		GenerateFractals.colourPixels(buffer, pixels, request);
+
+		return pixels;
+	}
+
+	// Encodes a frame as a PNG in memory, so that the disk is only waited on
+	// by the writer
+	private static byte[] encode(RenderRequest request, int[] pixels) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		try (PngWriter png = new PngWriter(out, request.width, request.height)) {
+			for (int y = 0; y < request.height; y++) {
+				png.writeRow(pixels, y * request.width);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toByteArray();
+	}
+
+	private static void write(String file, byte[] png) {
+		try {
+			Files.write(Paths.get(file), png);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// Threads which don't keep the program running if a stage fails
+	private static ThreadFactory daemon() {
+		return task -> {
+			Thread thread = new Thread(task);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
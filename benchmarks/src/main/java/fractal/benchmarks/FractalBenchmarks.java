@@ -0,0 +1,105 @@
+package fractal.benchmarks;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+// JMH benchmarks of the explorer's hot paths over the viewports of its own
+// Benchmark: single points iterated and shaded, the original Complex loops,
+// colouring a frame and iterating a whole frame. Each operation is one pass
+// over the viewport, as Benchmark times them.
+//
+// JMH will not generate code for classes in the default package, where the
+// explorer lives, and classes here cannot name those, so every pass comes
+// from the public Benchmark.pass, looked up by reflection once per trial.
+//
+// Colouring and whole frames run on the render pool, sized by threads (0 for
+// one thread per core). The pool is made once per JVM, so every trial must
+// run in a fork of its own, as it does by default
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector", "-Djava.awt.headless=true" })
+public class FractalBenchmarks {
+
+	@State(Scope.Benchmark)
+	public static class Viewport {
+
+		@Param({ "default", "seahorse", "interior", "antenna", "julia" })
+		public String viewport;
+
+		@Param({ "100", "1000" })
+		public int iterations;
+
+		LongSupplier pass;
+
+		// Settings read by the explorer's classes as they load
+		void configure() {
+		}
+
+		@Setup(Level.Trial)
+		public void setup(BenchmarkParams params) throws ReflectiveOperationException {
+			configure();
+
+			// Named after the benchmark method
+			String benchmark = params.getBenchmark();
+			benchmark = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+
+			try {
+				pass = (LongSupplier) Class.forName("Benchmark").getMethod("pass", String.class, String.class, int.class)
+						.invoke(null, benchmark, viewport, iterations);
+			} catch (InvocationTargetException e) {
+				throw new IllegalStateException("No " + benchmark + " pass over " + viewport, e.getCause());
+			}
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Pool extends Viewport {
+
+		@Param({ "1", "0" })
+		public int threads;
+
+		// Before anything makes the render pool
+		void configure() {
+			if (threads > 0) {
+				System.setProperty("fractal.threads", Integer.toString(threads));
+			}
+		}
+	}
+
+	@Benchmark
+	public long point(Viewport state) {
+		return state.pass.getAsLong();
+	}
+
+	@Benchmark
+	public long complex(Viewport state) {
+		return state.pass.getAsLong();
+	}
+
+	@Benchmark
+	public long colour(Pool state) {
+		return state.pass.getAsLong();
+	}
+
+	@Benchmark
+	public long frame(Pool state) {
+		return state.pass.getAsLong();
+	}
+}
@@ -0,0 +1,227 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// SIMD versions of the escape-time kernels, iterating one point per lane of
+// the widest vector the CPU supports. A lane whose point has escaped (or is
+// known to be inside) is masked off and its z left as it was, so every lane
+// ends with exactly the iterations and z of the scalar kernel. Points left
+// over at the end of a row go through the scalar kernel.
+//
+// Compiled on its own, since javac needs the jdk.incubator.vector module
+// for it, and only loaded when that module is present, see
+// EscapeKernel.VECTOR_API
+class VectorKernels {
+
+	final static VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	static EscapeKernel mandelbrot() {
+		return new Mandelbrot();
+	}
+
+	static EscapeKernel burningShip() {
+		return new BurningShip();
+	}
+
+	static EscapeKernel julia(double kr, double ki) {
+		return new Julia(kr, ki);
+	}
+
+	static int lanes() {
+		return SPECIES.length();
+	}
+
+	// Iterates the points from index i to n one at a time with the scalar kernel
+	static void scalarTail(EscapeKernel kernel, double[] cr, double[] ci, int i, int n, int maxIterations,
+			int[] iterations, double[] zr, double[] zi) {
+		double[] z = new double[2];
+
+		for (; i < n; i++) {
+			iterations[i] = kernel.iterate(cr[i], ci[i], maxIterations, z);
+			zr[i] = z[0];
+			zi[i] = z[1];
+		}
+	}
+
+	// Exact, but slower than the scalar kernel on the default view because of
+	// the cycle check on every iteration, so only used by Benchmark for now
+	static class Mandelbrot extends EscapeKernel.Mandelbrot {
+
+		void iterateRow(double[] cr, double[] ci, int n, int maxIterations, int[] iterations, double[] zr,
+				double[] zi) {
+			int lanes = SPECIES.length();
+			boolean[] inside = new boolean[lanes];
+			double[] counts = new double[lanes];
+			int i = 0;
+
+			for (; i + lanes <= n; i += lanes) {
+				// Lanes inside the cardioid or bulb never enter the loop
+				for (int lane = 0; lane < lanes; lane++) {
+					inside[lane] = inCardioidOrBulb(cr[i + lane], ci[i + lane]);
+				}
+				VectorMask<Double> bulb = VectorMask.fromArray(SPECIES, inside, 0);
+
+				DoubleVector cR = DoubleVector.fromArray(SPECIES, cr, i);
+				DoubleVector cI = DoubleVector.fromArray(SPECIES, ci, i);
+				DoubleVector x = cR;
+				DoubleVector y = cI;
+				DoubleVector count = DoubleVector.zero(SPECIES);
+
+				VectorMask<Double> active = bulb.not();
+				VectorMask<Double> trapped = SPECIES.maskAll(false);
+
+				// Cycle checkpoints as in the scalar kernel. Every active lane
+				// has done the same number of iterations, so one schedule serves all
+				DoubleVector checkX = x;
+				DoubleVector checkY = y;
+				int nextCheck = FIRST_CYCLE_CHECK;
+				int k = 0;
+
+				while (k < maxIterations) {
+					DoubleVector x2 = x.mul(x);
+					DoubleVector y2 = y.mul(y);
+
+					// Check if it goes to infinity
+					active = active.and(x2.add(y2).compare(VectorOperators.LE, 4));
+					if (!active.anyTrue()) {
+						break;
+					}
+
+					// (zn) = (zn-1)^2 + c
+					DoubleVector xUpdated = x2.sub(y2).add(cR);
+					DoubleVector yUpdated = x.mul(y).mul(2).add(cI);
+					x = x.blend(xUpdated, active);
+					y = y.blend(yUpdated, active);
+					count = count.add(1, active);
+					k++;
+
+					VectorMask<Double> cycle = active.and(x.compare(VectorOperators.EQ, checkX))
+							.and(y.compare(VectorOperators.EQ, checkY));
+					if (cycle.anyTrue()) {
+						trapped = trapped.or(cycle);
+						active = active.andNot(cycle);
+					}
+					if (k == nextCheck) {
+						checkX = x;
+						checkY = y;
+						nextCheck *= 2;
+					}
+				}
+				count.intoArray(counts, 0);
+				x.intoArray(zr, i);
+				y.intoArray(zi, i);
+
+				for (int lane = 0; lane < lanes; lane++) {
+					int done = (int) counts[lane];
+
+					if (inside[lane]) {
+						stats.bulbPoints.increment();
+						stats.skippedIterations.add(maxIterations);
+						done = maxIterations;
+					} else if (trapped.laneIsSet(lane)) {
+						stats.cyclePoints.increment();
+						stats.skippedIterations.add(maxIterations - done);
+						done = maxIterations;
+					}
+					iterations[i + lane] = done;
+				}
+			}
+			scalarTail(this, cr, ci, i, n, maxIterations, iterations, zr, zi);
+		}
+	}
+
+	static class BurningShip extends EscapeKernel.BurningShip {
+
+		void iterateRow(double[] cr, double[] ci, int n, int maxIterations, int[] iterations, double[] zr,
+				double[] zi) {
+			int lanes = SPECIES.length();
+			double[] counts = new double[lanes];
+			int i = 0;
+
+			for (; i + lanes <= n; i += lanes) {
+				DoubleVector cR = DoubleVector.fromArray(SPECIES, cr, i);
+				DoubleVector cI = DoubleVector.fromArray(SPECIES, ci, i);
+				DoubleVector x = DoubleVector.zero(SPECIES);
+				DoubleVector y = DoubleVector.zero(SPECIES);
+				DoubleVector count = DoubleVector.zero(SPECIES);
+				VectorMask<Double> active = SPECIES.maskAll(true);
+
+				for (int k = 0; k < maxIterations; k++) {
+					DoubleVector x2 = x.mul(x);
+					DoubleVector y2 = y.mul(y);
+
+					active = active.and(x2.add(y2).compare(VectorOperators.LT, 4));
+					if (!active.anyTrue()) {
+						break;
+					}
+
+					// Lane-wise absolute values fold the orbit into one quadrant
+					DoubleVector xUpdated = x2.sub(y2).add(cR);
+					DoubleVector yUpdated = x.abs().mul(2).mul(y.abs()).add(cI);
+					x = x.blend(xUpdated, active);
+					y = y.blend(yUpdated, active);
+					count = count.add(1, active);
+				}
+				count.intoArray(counts, 0);
+				x.intoArray(zr, i);
+				y.intoArray(zi, i);
+
+				for (int lane = 0; lane < lanes; lane++) {
+					iterations[i + lane] = (int) counts[lane];
+				}
+			}
+			scalarTail(this, cr, ci, i, n, maxIterations, iterations, zr, zi);
+		}
+	}
+
+	static class Julia extends EscapeKernel.Julia {
+
+		Julia(double kr, double ki) {
+			super(kr, ki);
+		}
+
+		void iterateRow(double[] cr, double[] ci, int n, int maxIterations, int[] iterations, double[] zr,
+				double[] zi) {
+			int lanes = SPECIES.length();
+			double[] counts = new double[lanes];
+			int i = 0;
+
+			for (; i + lanes <= n; i += lanes) {
+				DoubleVector x = DoubleVector.fromArray(SPECIES, cr, i);
+				DoubleVector y = DoubleVector.fromArray(SPECIES, ci, i);
+				// Points which never escape are given maxIterations - 1
+				DoubleVector count = DoubleVector.broadcast(SPECIES, maxIterations - 1);
+				VectorMask<Double> active = SPECIES.maskAll(true);
+
+				for (int k = 0; k < maxIterations; k++) {
+					DoubleVector x2 = x.mul(x);
+					DoubleVector y2 = y.mul(y);
+
+					DoubleVector xUpdated = x2.sub(y2).add(kr);
+					DoubleVector yUpdated = x.mul(y).mul(2).add(ki);
+					x = x.blend(xUpdated, active);
+					y = y.blend(yUpdated, active);
+
+					// Escaped on this iteration
+					VectorMask<Double> escaped = active
+							.and(x.mul(x).add(y.mul(y)).compare(VectorOperators.GT, 4));
+					count = count.blend(k, escaped);
+					active = active.andNot(escaped);
+
+					if (!active.anyTrue()) {
+						break;
+					}
+				}
+				count.intoArray(counts, 0);
+				x.intoArray(zr, i);
+				y.intoArray(zi, i);
+
+				for (int lane = 0; lane < lanes; lane++) {
+					iterations[i + lane] = (int) counts[lane];
+				}
+			}
+			scalarTail(this, cr, ci, i, n, maxIterations, iterations, zr, zi);
+		}
+	}
+}